@@ -0,0 +1,107 @@
+package cz.stanislavsimek.bsctest;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.report.ReportCache;
+import cz.stanislavsimek.bsctest.report.ReportFormatter;
+import cz.stanislavsimek.bsctest.report.ReportIndex;
+import cz.stanislavsimek.bsctest.report.ReportWriter;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of rendering the whole report by {@link ReportFormatter} (as {@link Main#getOutput()} in
+ * sharded mode), of streaming the same rows by {@link ReportWriter} and of {@link ReportCache}
+ * after one added package, by number of packages and postal codes, with fees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class ReportBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int packages;
+
+    @Param({"100", "100000"})
+    public int postalCodes;
+
+    private PackageStore store;
+    private ReportIndex reportIndex;
+    private ReportCache reportCache;
+    private Random random;
+
+    @Setup
+    public void loadPackages() {
+        store = new PackageStore(false);
+        FeeTable.Builder feeTable = new FeeTable.Builder();
+        for (int tier = 1; tier <= 10; tier++) {
+            feeTable.put(tier * 1000L, tier * 100L);
+        }
+        store.setFeeTable(feeTable.build());
+        Random random = new Random(42);
+        for (int i = 0; i < packages; i++) {
+            int postalCode = random.nextInt(postalCodes);
+            store.add(postalCode, 1 + random.nextInt(30000));
+        }
+        reportIndex = new ReportIndex(store);
+        reportCache = new ReportCache(store, new ReportIndex(store));
+        this.random = random;
+    }
+
+    @Benchmark
+    public String getOutput() {
+        return ReportFormatter.format(reportIndex.publish());
+    }
+
+    @Benchmark
+    public String getCachedOutputAfterOnePackage() {
+        store.add(random.nextInt(postalCodes), 1 + random.nextInt(30000));
+        return reportCache.getOutput();
+    }
+
+    @Benchmark
+    public long writeOutput() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        ReportWriter.write(reportIndex.publish(), writer);
+        return writer.count;
+    }
+
+    /**
+     * Discards written characters, only counts them.
+     */
+    private static class CountingWriter extends Writer {
+
+        private long count;
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
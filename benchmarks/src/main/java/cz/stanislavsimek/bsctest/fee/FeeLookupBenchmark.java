@@ -0,0 +1,89 @@
+package cz.stanislavsimek.bsctest.fee;
+
+import cz.stanislavsimek.bsctest.legacy.LegacyMain;
+import cz.stanislavsimek.bsctest.model.Package;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a fee lookup by fee table size, current table (direct index below 65 kg, binary search
+ * above) against the legacy linear scan (getProperFee).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeeLookupBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int tiers;
+
+    /**
+     * Highest threshold, 50 kg fits direct lookup, 1000 kg does not.
+     */
+    @Param({"50", "1000"})
+    public int highestThresholdInKg;
+
+    private FeeTable feeTable;
+    private final long[] weightsInGrams = new long[LOOKUPS];
+
+    private LegacyMain legacyMain;
+    private final Package[] packages = new Package[LOOKUPS];
+
+    @Setup
+    public void createFees() {
+        long highestThresholdInGrams = highestThresholdInKg * 1000L;
+        FeeTable.Builder builder = new FeeTable.Builder();
+        legacyMain = new LegacyMain();
+        for (int tier = 1; tier <= tiers; tier++) {
+            long thresholdInGrams = Math.max(1, highestThresholdInGrams * tier / tiers);
+            builder.put(thresholdInGrams, tier * 10L);
+            legacyMain.loadFeeLine(BigDecimal.valueOf(thresholdInGrams, 3) + " " + BigDecimal.valueOf(tier * 10L, 2));
+        }
+        feeTable = builder.build();
+        Random random = new Random(42);
+        for (int i = 0; i < LOOKUPS; i++) {
+            weightsInGrams[i] = 1 + random.nextInt((int) (highestThresholdInGrams * 6 / 5));
+            packages[i] = new Package(weightsInGrams[i] / 1000.0, "00000");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public long getFeeInCents() {
+        long sum = 0;
+        for (long weightInGrams : weightsInGrams) {
+            sum += feeTable.getFeeInCents(weightInGrams);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public BigDecimal legacyGetProperFee() {
+        BigDecimal sum = BigDecimal.ZERO;
+        for (Package _package : packages) {
+            sum = sum.add(legacyMain.getProperFee(_package));
+        }
+        return sum;
+    }
+}
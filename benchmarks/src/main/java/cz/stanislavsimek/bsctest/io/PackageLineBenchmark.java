@@ -0,0 +1,90 @@
+package cz.stanislavsimek.bsctest.io;
+
+import cz.stanislavsimek.bsctest.legacy.LegacyMain;
+import cz.stanislavsimek.bsctest.parser.LineParser;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of loading package lines (parse, validate, add to the store), current code against
+ * the legacy one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PackageLineBenchmark {
+
+    private static final int LINES = 4096;
+
+    private final String[] lines = new String[LINES];
+
+    private PackageStore store;
+    private PackageLineLoader lineLoader;
+    private LineParser parser;
+    private LegacyMain legacyMain;
+
+    @Setup(Level.Trial)
+    public void createLines() {
+        Random random = new Random(42);
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = (1 + random.nextInt(30000)) / 1000.0 + " " + String.format("%05d", random.nextInt(100000));
+        }
+    }
+
+    /**
+     * Legacy code keeps every package, so the state starts empty in each iteration.
+     */
+    @Setup(Level.Iteration)
+    public void createStore() {
+        store = new PackageStore(false);
+        lineLoader = new PackageLineLoader(store);
+        parser = new LineParser();
+        legacyMain = new LegacyMain();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void loadPackageLine() {
+        for (String line : lines) {
+            lineLoader.load(line);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long parsePackageLine() {
+        long sum = 0;
+        for (String line : lines) {
+            if (parser.parsePackageLine(line)) {
+                sum += parser.getWeightInGrams() + parser.getPostalCode();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void legacyLoadPackageLine() {
+        for (String line : lines) {
+            legacyMain.loadPackageLine(line);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package cz.stanislavsimek.bsctest.legacy;
+
+import cz.stanislavsimek.bsctest.model.Fee;
+import cz.stanislavsimek.bsctest.model.Package;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import net.sf.oval.ConstraintViolation;
+import net.sf.oval.Validator;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Packages, fees and report as they were kept before running totals (all packages in lists per
+ * postal code, fees in a sorted map, BigDecimal sums computed by each report), as a baseline for
+ * comparison. Static state is turned into instance state, otherwise the code is unchanged.
+ */
+public class LegacyMain {
+
+    /**
+     * Loaded packages. Key = postal code.
+     */
+    private final SortedMap<String, List<Package>> packagesSortedByPostalCode = new TreeMap<>();
+
+    /**
+     * Loaded fees. Key = weight.
+     */
+    private final SortedMap<BigDecimal, Fee> feesSortedByWeightDesc
+            = new TreeMap<>((Comparator<BigDecimal>) (o1, o2) -> o2.compareTo(o1));
+
+    /**
+     * Package line format: [weight: positive number, >0, maximal 3 decimal places, . (dot) as
+     * decimal separator][space][postal code: fixed 5 digits]
+     */
+    public void loadPackageLine(String line) {
+        String[] inputParameters = line.split(" ");
+        if (inputParameters.length != 2) {
+            System.err.println(
+                    "ERROR: 2 input parameters expected per package line, get " + inputParameters.length + "."
+            );
+            return;
+        }
+        double weightInKg;
+        try {
+            weightInKg = Double.valueOf(inputParameters[0]);
+        } catch (NumberFormatException e) {
+            System.err.println(
+                    "ERROR: First input parameter for package line should be float, is '" + inputParameters[0] + "'."
+            );
+            return;
+        }
+        String postalCode = inputParameters[1];
+        Package _package = new Package(weightInKg, postalCode);
+        if (isValid(_package)) {
+            synchronized (packagesSortedByPostalCode) {
+                List<Package> packageList
+                        = packagesSortedByPostalCode.getOrDefault(postalCode, new ArrayList<>());
+                packageList.add(_package);
+                packagesSortedByPostalCode.put(postalCode, packageList);
+            }
+        }
+    }
+
+    private static boolean isValid(Package _package) {
+        Validator validator = new Validator();
+        List<ConstraintViolation> violations = validator.validate(_package);
+        if (!violations.isEmpty()) {
+            System.err.println(
+                    "ERROR: Package " + _package + " is invalid: " + StringUtils.join(violations, ", ")
+            );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fee line format: [weight: positive number, >0, maximal 3 decimal places, . (dot) as decimal
+     * separator][space][fee: positive number, >=0, fixed two decimals, . (dot) as decimal
+     * separator]
+     */
+    public void loadFeeLine(String line) {
+        String[] inputParameters = line.split(" ");
+        if (inputParameters.length != 2) {
+            System.err.println(
+                    "ERROR: 2 input parameters expected per fee line, get " + inputParameters.length + "."
+            );
+            return;
+        }
+        double weightInKg;
+        try {
+            weightInKg = Double.valueOf(inputParameters[0]);
+        } catch (NumberFormatException e) {
+            System.err.println(
+                    "ERROR: First input parameter for fee line should be float, is '" + inputParameters[0] + "'."
+            );
+            return;
+        }
+        double feeValue;
+        try {
+            feeValue = Double.valueOf(inputParameters[1]);
+        } catch (NumberFormatException e) {
+            System.err.println(
+                    "ERROR: Second input parameter for fee line should be float, is '" + inputParameters[0] + "'."
+            );
+            return;
+        }
+        Fee fee = new Fee(weightInKg, feeValue);
+        if (isValid(fee)) {
+            feesSortedByWeightDesc.put(BigDecimal.valueOf(weightInKg), fee);
+        }
+    }
+
+    private static boolean isValid(Fee fee) {
+        Validator validator = new Validator();
+        List<ConstraintViolation> violations = validator.validate(fee);
+        if (!violations.isEmpty()) {
+            System.err.println(
+                    "ERROR: Fee " + fee + " is invalid: " + StringUtils.join(violations, ", ")
+            );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Output line format: [postal code: fixed 5 digits][space][total weight: fixed 3 decimal
+     * places, . (dot) as decimal separator][space][total fee: fixed 2 decimal places, . (dot) as
+     * decimal separator]
+     */
+    public String getOutput() {
+        SortedMap<BigDecimal, List<String>> outputLinesSortedByTotalWeight
+                = new TreeMap<>((Comparator<BigDecimal>) (o1, o2) -> o2.compareTo(o1));
+        StringBuilder outputLines = new StringBuilder();
+        synchronized (packagesSortedByPostalCode) {
+            for (Map.Entry<String, List<Package>> entry : packagesSortedByPostalCode.entrySet()) {
+                String postalCode = entry.getKey();
+                List<Package> packages = entry.getValue();
+                BigDecimal sumOfWeights = new BigDecimal(0);
+                for (Package _package : packages) {
+                    sumOfWeights = sumOfWeights.add(_package.getWeightInKg());
+                }
+                String outputLine
+                        = postalCode
+                        + String.format(" %.3f", sumOfWeights)
+                        + getProperFeeString(packages);
+                List<String> linesList
+                        = outputLinesSortedByTotalWeight.getOrDefault(sumOfWeights, new ArrayList<>());
+                linesList.add(outputLine);
+                outputLinesSortedByTotalWeight.put(sumOfWeights, linesList);
+            }
+        }
+        for (Map.Entry<BigDecimal, List<String>> entry : outputLinesSortedByTotalWeight.entrySet()) {
+            List<String> linesList = entry.getValue();
+            for (String line : linesList) {
+                outputLines.append(line).append(System.lineSeparator());
+            }
+        }
+        return outputLines.toString().trim();
+    }
+
+    private String getProperFeeString(List<Package> packages) {
+        if (!feesSortedByWeightDesc.isEmpty()) {
+            BigDecimal properFee = new BigDecimal(0);
+            for (Package _package : packages) {
+                properFee = properFee.add(getProperFee(_package));
+            }
+            return String.format(" %.2f", properFee);
+        }
+        return "";
+    }
+
+    public BigDecimal getProperFee(Package _package) {
+        for (Map.Entry<BigDecimal, Fee> entry : feesSortedByWeightDesc.entrySet()) {
+            BigDecimal feeWeight = entry.getKey();
+            BigDecimal feeValue = entry.getValue().getFee();
+            if (_package.getWeightInKg().doubleValue() >= feeWeight.doubleValue()) {
+                return feeValue;
+            }
+        }
+        return new BigDecimal(0);
+    }
+}
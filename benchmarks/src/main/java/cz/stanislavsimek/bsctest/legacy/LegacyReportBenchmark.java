@@ -0,0 +1,57 @@
+package cz.stanislavsimek.bsctest.legacy;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the legacy report, with the same packages and fees as ReportBenchmark. 10M packages
+ * are left out, legacy code needs several GB for them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class LegacyReportBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int packages;
+
+    @Param({"100", "100000"})
+    public int postalCodes;
+
+    private LegacyMain legacyMain;
+
+    @Setup
+    public void loadPackages() {
+        legacyMain = new LegacyMain();
+        for (int tier = 1; tier <= 10; tier++) {
+            legacyMain.loadFeeLine(tier + " " + BigDecimal.valueOf(tier * 100L, 2));
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < packages; i++) {
+            int postalCode = random.nextInt(postalCodes);
+            long weightInGrams = 1 + random.nextInt(30000);
+            legacyMain.loadPackageLine(BigDecimal.valueOf(weightInGrams, 3) + " " + String.format("%05d", postalCode));
+        }
+    }
+
+    @Benchmark
+    public String getOutput() {
+        return legacyMain.getOutput();
+    }
+}
@@ -1,83 +1,684 @@
 package cz.stanislavsimek.bsctest;
 
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.io.LineFileReader;
+import cz.stanislavsimek.bsctest.io.PackageFileLoader;
+import cz.stanislavsimek.bsctest.io.PackageLineLoader;
+import cz.stanislavsimek.bsctest.journal.FsyncPolicy;
+import cz.stanislavsimek.bsctest.journal.Journal;
+import cz.stanislavsimek.bsctest.metrics.Metrics;
+import cz.stanislavsimek.bsctest.metrics.MetricsExporter;
 import cz.stanislavsimek.bsctest.model.Fee;
-import cz.stanislavsimek.bsctest.model.Package;
+import cz.stanislavsimek.bsctest.net.PackageSocketServer;
+import cz.stanislavsimek.bsctest.net.ReportHttpServer;
+import cz.stanislavsimek.bsctest.parser.LenientLineParser;
+import cz.stanislavsimek.bsctest.parser.LineParser;
+import cz.stanislavsimek.bsctest.pipeline.Backpressure;
+import cz.stanislavsimek.bsctest.pipeline.InputPipeline;
+import cz.stanislavsimek.bsctest.report.DeltaReport;
+import cz.stanislavsimek.bsctest.report.RegionReport;
+import cz.stanislavsimek.bsctest.report.ReportCache;
+import cz.stanislavsimek.bsctest.report.ReportFormatter;
+import cz.stanislavsimek.bsctest.report.ReportIndex;
+import cz.stanislavsimek.bsctest.report.ReportSnapshot;
+import cz.stanislavsimek.bsctest.report.ReportWriter;
+import cz.stanislavsimek.bsctest.shard.ShardCoordinator;
+import cz.stanislavsimek.bsctest.store.PackageSink;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodeTotal;
+import cz.stanislavsimek.bsctest.store.PostalCodes;
+import cz.stanislavsimek.bsctest.store.StoreSnapshot;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
 
-import net.sf.oval.Validator;
-import net.sf.oval.ConstraintViolation;
-
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 
 public class Main {
 
     /**
-     * Loaded packages. Key = postal code.
+     * Running totals of loaded packages per postal code.
+     */
+    private static PackageStore packageStore;
+
+    /**
+     * Rows of the report in report order.
+     */
+    private static ReportIndex reportIndex;
+
+    /**
+     * Rendered rows of the report, memoized by version of the store.
+     */
+    private static ReportCache reportCache;
+
+    /**
+     * Rows changed since the previous report, in delta reporting mode only.
+     */
+    private static DeltaReport deltaReport;
+
+    /**
+     * Coordinator of worker processes keeping the totals, in sharded mode only.
+     */
+    private static ShardCoordinator shardCoordinator;
+
+    /**
+     * Journal of packages and fees entered after initial load, or null.
+     */
+    private static Journal journal;
+
+    /**
+     * Metrics for "stats" command and JMX.
      */
-    private static SortedMap<String, List<Package>> packagesSortedByPostalCode;
+    private static MetricsExporter metricsExporter;
 
     /**
-     * Loaded fees. Key = weight.
+     * Fingerprint of initial files, see {@link StoreSnapshot#fingerprintOf(String...)}.
      */
-    private static SortedMap<BigDecimal, Fee> feesSortedByWeightDesc;
+    private static long sourceFingerprint;
+
+    /**
+     * File name of fees, for reloading.
+     */
+    private static String feesFileName;
+
+    private static final ThreadLocal<LineParser> lineParser = ThreadLocal.withInitial(LineParser::new);
 
     /**
      * Command line program that keeps a record of packages processed. Each package information
      * consists of weight (in kg) and destination postal code. Think about these packages in the
      * same way, when you send one using postal office. Data are kept in memory. 
      *
+     * System property "bsctest.keepPackages" set to true keeps also every accepted package, not only
+     * the running totals per postal code and counts per distinct weight. System property
+     * "bsctest.keepWeightCounts" set to true keeps only counts of packages per distinct weight, so
+     * that "reload" can price packages again. System property "bsctest.port" starts listening for
+     * package lines over TCP on the port of "bsctest.bindAddress" (loopback by default). System
+     * properties "bsctest.pipeline.capacity" and
+     * "bsctest.pipeline.backpressure" (block or shed) configure processing of user input, see
+     * {@link InputPipeline}. System property "bsctest.report.mode" set to delta prints only
+     * postal codes changed since the previous report, with full report every
+     * "bsctest.report.checkpointEvery" reports (10 by default). System property "bsctest.journal"
+     * keeps packages and fees entered after initial load in the journal file, so that they survive
+     * restart, see {@link Journal}. System property "bsctest.snapshot" keeps the whole state in the
+     * snapshot file (every "bsctest.snapshot.intervalSeconds", 300 by default, and on quit), which
+     * is loaded at next run instead of initial files, as long as they are not changed. System
+     * property "bsctest.window.slots" keeps totals of recent time slots (each of
+     * "bsctest.window.slotSeconds", 60 by default) for "window" command. System property
+     * "bsctest.shards" keeps the totals in that many worker processes, see {@link #startShards()}.
+     * System property "bsctest.quantiles" set to true keeps distributions of weights per postal
+     * code for "quantiles" command, "bsctest.report.quantiles" set to true adds them to output too.
+     *
      * @param args First argument contains optional file name of initial packages. Second argument
      * contains optional file name of initial fees.
      */
     public static void main(String[] args) {
         System.out.println("Program started");
 
-        packagesSortedByPostalCode = new TreeMap<>();
-        feesSortedByWeightDesc = new TreeMap<>((Comparator<BigDecimal>) (o1, o2) -> o2.compareTo(o1));
+        boolean reportQuantiles = Boolean.getBoolean("bsctest.report.quantiles");
+        packageStore = new PackageStore(
+                Boolean.getBoolean("bsctest.keepPackages"),
+                Boolean.getBoolean("bsctest.keepWeightCounts"),
+                Integer.getInteger("bsctest.window.slots", 0),
+                TimeUnit.SECONDS.toMillis(Long.getLong("bsctest.window.slotSeconds", 60)),
+                reportQuantiles || Boolean.getBoolean("bsctest.quantiles")
+        );
+        reportIndex = new ReportIndex(packageStore);
+        reportCache = new ReportCache(packageStore, reportIndex, reportQuantiles);
+        shardCoordinator = startShards();
+        deltaReport = "delta".equals(System.getProperty("bsctest.report.mode")) && shardCoordinator == null
+                ? new DeltaReport(packageStore)
+                : null;
+        feesFileName = null;
+        sourceFingerprint = StoreSnapshot.fingerprintOf(Arrays.copyOf(args, Math.min(args.length, 2)));
 
-        loadInitialPackagesFromFile(args);
-        loadInitialFeesFromFile(args);
+        journal = shardCoordinator == null ? openJournal() : null;
+        StoreSnapshot snapshot = shardCoordinator == null ? readSnapshot() : null;
+        if (snapshot != null) {
+            snapshot.restoreInto(packageStore);
+            feesFileName = args.length > 1 ? args[1] : null;
+            System.out.println("Snapshot loaded");
+        } else {
+            // Fees go first, so that packages do not need to be priced again.
+            loadInitialFeesFromFile(args);
+            loadInitialPackagesFromFile(args);
+        }
+        replayJournal(snapshot);
+        Thread snapshotWriter = writeSnapshotPeriodically();
 
-        OutputPrinterRunnable outputPrinterRunnable = writeOutputToConsoleOncePerMinute();
+        PackageSocketServer socketServer = startSocketServer();
+        ReportHttpServer httpServer = startHttpServer();
+        ScheduledExecutorService outputPrinter = writeOutputToConsolePeriodically();
+        advanceWindowsPeriodically(outputPrinter);
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        InputPipeline inputPipeline = new InputPipeline(
+                System.in,
+                toJournaledSink(packageStore),
+                Main::executeCommand,
+                Integer.getInteger("bsctest.pipeline.capacity", 65536),
+                Backpressure.valueOf(System.getProperty("bsctest.pipeline.backpressure", "block").toUpperCase())
+        );
+        metricsExporter = new MetricsExporter(inputPipeline);
+        registerMetrics();
+        inputPipeline.start();
         try {
-            while (true) {
-                // Read user input from console, consisting of weight of package and destination postal code.
-                String inputLine;
-                try {
-                    inputLine = reader.readLine();
-                } catch (IOException ex) {
-                    System.err.println("ERROR: " + ex.getMessage());
-                    break;
-                }
-                // When user enters "quit" to command line as input, program exits.
-                if ("quit".equals(inputLine)) {
-                    outputPrinterRunnable.stop();
-                    break;
-                }
-                if (StringUtils.isNotBlank(inputLine)) {
-                    loadPackageLine(inputLine);
-                }
-            }
+            // When user enters "quit" to command line as input, program exits.
+            inputPipeline.awaitQuit();
+            inputPipeline.awaitDrained();
+            stopOutputPrinter(outputPrinter);
+            stopSnapshotWriter(snapshotWriter);
+        } catch (InterruptedException e) {
+            System.err.println("ERROR: " + e.getMessage());
         } finally {
+            // Also when interrupted, so that no output is written after the program finished
+            outputPrinter.shutdownNow();
+            stopSocketServer(socketServer);
+            stopHttpServer(httpServer);
+            stopShards();
+            closeJournal();
+            unregisterMetrics();
             System.out.println("Program finished");
         }
     }
 
+    /**
+     * Output of the command is written at once, periodic output waits for it (and vice versa).
+     *
+     * @return False if the line is not a command, but a package line.
+     */
+    private static boolean executeCommand(String line) {
+        synchronized (System.out) {
+            return executeConsoleCommand(line);
+        }
+    }
+
+    /**
+     * The command is the first word of the line, the rest are its parameters.
+     */
+    private static boolean executeConsoleCommand(String line) {
+        line = line.trim();
+        String[] words = StringUtils.split(line);
+        String command = words.length > 0 ? words[0] : "";
+        if (shardCoordinator != null
+                && ("get".equals(command) || "range".equals(command) || "window".equals(command)
+                || "quantiles".equals(command))) {
+            System.err.println("ERROR: Command is not available with shards.");
+            return true;
+        }
+        switch (command) {
+            case "reload":
+                reloadFees(line);
+                return true;
+            case "window":
+                printWindow(line);
+                return true;
+            case "stats":
+                printStats();
+                return true;
+            case "get":
+                printPostalCode(line);
+                return true;
+            case "top":
+                printTop(line);
+                return true;
+            case "range":
+                printRange(line);
+                return true;
+            case "quantiles":
+                printWeightQuantiles(line);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * When user enters "get [postal code]", totals of the postal code are written to console.
+     */
+    private static void printPostalCode(String command) {
+        String[] parameters = StringUtils.split(command);
+        if (parameters.length != 2 || !PostalCodes.isValid(parameters[1])) {
+            System.err.println("ERROR: Postal code expected as 'get [postal code]', e.g. 'get 08801'.");
+            return;
+        }
+        long[] totals = new long[3];
+        boolean found = packageStore.readTotals(PostalCodes.toIndex(parameters[1]), totals);
+        System.out.println("Packages of " + parameters[1] + ":");
+        printTotals(parameters[1], totals, found);
+    }
+
+    /**
+     * When user enters "top [n]", n postal codes with the highest total weight are written to
+     * console, in the same format and order as output.
+     */
+    private static void printTop(String command) {
+        String[] parameters = StringUtils.split(command);
+        int rows = parameters.length == 2 ? NumberUtils.toInt(parameters[1]) : 0;
+        if (rows <= 0) {
+            System.err.println("ERROR: Number of postal codes expected as 'top [n]', e.g. 'top 10'.");
+            return;
+        }
+        StringBuilder outputLines = new StringBuilder();
+        boolean withFees = !packageStore.getFeeTable().isEmpty();
+        ReportIndex.RowConsumer appendRow = (postalCode, totalWeightInGrams, totalFeeInCents, packageCount) ->
+                ReportFormatter.appendRow(outputLines, postalCode, totalWeightInGrams, totalFeeInCents, withFees);
+        if (shardCoordinator != null) {
+            shardCoordinator.collect().forEachRow(rows, appendRow);
+        } else {
+            // Only the first rows are walked, rows of all postal codes are not copied into a snapshot
+            reportIndex.refresh();
+            reportIndex.forEachRow(rows, appendRow);
+        }
+        System.out.println("Top " + rows + " packages:");
+        System.out.println(outputLines.length() == 0 ? "none" : outputLines.toString().trim());
+        System.out.println();
+    }
+
+    /**
+     * When user enters "range [from] [to]", the sum of totals of postal codes in the range (both
+     * included) is written to console. The sum is read from {@link PackageStore#readRangeTotals},
+     * so that adding of packages is not blocked.
+     */
+    private static void printRange(String command) {
+        String[] parameters = StringUtils.split(command);
+        if (parameters.length != 3 || !PostalCodes.isValid(parameters[1]) || !PostalCodes.isValid(parameters[2])
+                || parameters[1].compareTo(parameters[2]) > 0) {
+            System.err.println("ERROR: Range of postal codes expected as 'range [from] [to]', e.g. 'range 10000 19999'.");
+            return;
+        }
+        long[] totals = new long[3];
+        boolean found = packageStore.readRangeTotals(
+                PostalCodes.toIndex(parameters[1]), PostalCodes.toIndex(parameters[2]), totals
+        );
+        System.out.println("Packages in range " + parameters[1] + " - " + parameters[2] + ":");
+        printTotals(parameters[1] + "-" + parameters[2], totals, found);
+    }
+
+    /**
+     * When user enters "quantiles [postal code]" or "quantiles [region]" (prefix of 1 to 3
+     * digits), weights at {@link ReportFormatter#WEIGHT_QUANTILES} of packages of the postal code
+     * or region are written to console.
+     */
+    private static void printWeightQuantiles(String command) {
+        if (!packageStore.isKeepingWeightSketches()) {
+            System.err.println("ERROR: Distributions of weights are not kept, see option bsctest.quantiles.");
+            return;
+        }
+        String[] parameters = StringUtils.split(command);
+        String key = parameters.length == 2 ? parameters[1] : "";
+        boolean region = key.length() >= 1 && key.length() <= 3 && StringUtils.isNumeric(key);
+        if (!region && !PostalCodes.isValid(key)) {
+            System.err.println("ERROR: Postal code or region expected as 'quantiles [postal code|region]', e.g. 'quantiles 088'.");
+            return;
+        }
+        long[] weightsInGrams = new long[ReportFormatter.WEIGHT_QUANTILES.length];
+        boolean found = region
+                ? packageStore.readRegionWeightQuantiles(
+                        key.length(), Integer.parseInt(key), ReportFormatter.WEIGHT_QUANTILES, weightsInGrams
+                )
+                : packageStore.readWeightQuantiles(PostalCodes.toIndex(key), ReportFormatter.WEIGHT_QUANTILES, weightsInGrams);
+        System.out.println("Weight quantiles of " + key + ":");
+        if (found) {
+            StringBuilder outputLine = new StringBuilder(key);
+            ReportFormatter.appendWeightQuantiles(outputLine, weightsInGrams);
+            System.out.println(outputLine);
+        } else {
+            System.out.println("none");
+        }
+        System.out.println();
+    }
+
+    private static void printTotals(String label, long[] totals, boolean found) {
+        if (found) {
+            StringBuilder outputLine = new StringBuilder();
+            ReportFormatter.appendRow(outputLine, label, totals[0], totals[1], !packageStore.getFeeTable().isEmpty());
+            System.out.println(outputLine.toString().trim());
+        } else {
+            System.out.println("none");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Windowed totals move to the next time slot once a second, on the same thread as output.
+     */
+    private static void advanceWindowsPeriodically(ScheduledExecutorService scheduler) {
+        if (packageStore.isKeepingWindows()) {
+            long periodMillis = Math.min(1000, packageStore.getWindowSlotMillis());
+            scheduler.scheduleAtFixedRate(packageStore::advanceWindows, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * When user enters "window [seconds]", totals of packages added in last seconds are written
+     * to console, in the same format as output. The window is sliding - it includes the current
+     * time slot and previous ones. With "window [seconds] tumbling", it includes previous
+     * completed time slots only.
+     */
+    private static void printWindow(String command) {
+        if (!packageStore.isKeepingWindows()) {
+            System.err.println("ERROR: Windows are not kept, see option bsctest.window.slots.");
+            return;
+        }
+        String[] parameters = StringUtils.split(command);
+        boolean tumbling = parameters.length == 3 && "tumbling".equals(parameters[2]);
+        boolean sliding = parameters.length == 2 || (parameters.length == 3 && "sliding".equals(parameters[2]));
+        long seconds = sliding || tumbling ? NumberUtils.toLong(parameters[1]) : 0;
+        if (seconds <= 0) {
+            System.err.println("ERROR: Window expected as 'window [seconds] [sliding|tumbling]', e.g. 'window 300'.");
+            return;
+        }
+        long slotMillis = packageStore.getWindowSlotMillis();
+        long windowSlots = (TimeUnit.SECONDS.toMillis(seconds) + slotMillis - 1) / slotMillis;
+        List<PostalCodeTotal> totals;
+        try {
+            totals = packageStore.getWindowTotals((int) Math.min(windowSlots, Integer.MAX_VALUE), tumbling);
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            return;
+        }
+        boolean withFees = !packageStore.getFeeTable().isEmpty();
+        StringBuilder outputLines = new StringBuilder();
+        for (PostalCodeTotal total : totals) {
+            ReportFormatter.appendRow(
+                    outputLines, total.getPostalCodeIndex(), total.getTotalWeightInGrams(),
+                    total.getTotalFeeInCents(), withFees
+            );
+        }
+        System.out.println("Packages in " + (tumbling ? "tumbling" : "sliding") + " window of "
+                + windowSlots * slotMillis / 1000 + " s:");
+        System.out.println(totals.isEmpty() ? "none" : outputLines.toString().trim());
+        System.out.println();
+    }
+
+    /**
+     * Metrics are exported over JMX as {@link cz.stanislavsimek.bsctest.metrics.MetricsMXBean}.
+     */
+    private static void registerMetrics() {
+        try {
+            metricsExporter.register();
+        } catch (JMException e) {
+            System.err.println("ERROR: Unable to export metrics over JMX : " + e.getMessage());
+        }
+    }
+
+    private static void unregisterMetrics() {
+        try {
+            metricsExporter.unregister();
+        } catch (JMException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        }
+    }
+
+    /**
+     * When user enters "stats", metrics are written to console.
+     */
+    private static void printStats() {
+        System.out.println("Stats:");
+        System.out.println(metricsExporter);
+        System.out.println();
+    }
+
+    /**
+     * Totals of postal codes are kept by worker processes, each owning a shard of postal codes,
+     * with "bsctest.shards" set to the number of processes, see {@link ShardCoordinator}. Journal,
+     * snapshot, windows, regions and delta output need totals in this process, so they are not
+     * available with shards, and neither are commands "get", "range", "window" and "quantiles",
+     * nor the column of weight quantiles.
+     *
+     * @return Started coordinator, or null in single process mode.
+     */
+    private static ShardCoordinator startShards() {
+        int shards = Integer.getInteger("bsctest.shards", 0);
+        if (shards <= 0) {
+            return null;
+        }
+        try {
+            ShardCoordinator coordinator = ShardCoordinator.start(
+                    shards, Boolean.getBoolean("bsctest.keepWeightCounts")
+            );
+            System.out.println("Shards started: " + shards);
+            return coordinator;
+        } catch (IOException e) {
+            System.err.println("ERROR: Unable to start " + shards + " shards, running in one process : " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void stopShards() {
+        if (shardCoordinator != null) {
+            try {
+                shardCoordinator.close();
+            } catch (IOException e) {
+                System.err.println("ERROR: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Package lines can be sent also over TCP, if port is specified. Only local clients can
+     * connect, unless "bsctest.bindAddress" is specified, see {@link #getBindAddress()}.
+     */
+    private static PackageSocketServer startSocketServer() {
+        Integer port = Integer.getInteger("bsctest.port");
+        if (port == null) {
+            return null;
+        }
+        try {
+            PackageSocketServer socketServer = new PackageSocketServer(
+                    getBindAddress(), port, toJournaledSink(packageStore)
+            );
+            socketServer.start();
+            System.out.println("Listening for packages on port " + socketServer.getPort());
+            return socketServer;
+        } catch (IOException e) {
+            System.err.println("ERROR: Unable to listen for packages on port " + port + " : " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return Address of servers given by "bsctest.bindAddress" (e.g. 0.0.0.0 for all
+     * interfaces), loopback address by default.
+     */
+    private static InetAddress getBindAddress() throws UnknownHostException {
+        String bindAddress = System.getProperty("bsctest.bindAddress");
+        return bindAddress == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bindAddress);
+    }
+
+    /**
+     * Report and totals of postal codes can be read also over HTTP, if "bsctest.http.port" is
+     * specified, see {@link ReportHttpServer}. Only local clients can connect, unless
+     * "bsctest.bindAddress" is specified, see {@link #getBindAddress()}.
+     */
+    private static ReportHttpServer startHttpServer() {
+        Integer port = Integer.getInteger("bsctest.http.port");
+        if (port == null) {
+            return null;
+        }
+        try {
+            ReportHttpServer httpServer = new ReportHttpServer(
+                    getBindAddress(), port, Main::publishReport, shardCoordinator == null ? packageStore : null
+            );
+            httpServer.start();
+            System.out.println("Serving reports over HTTP on port " + httpServer.getPort());
+            return httpServer;
+        } catch (IOException e) {
+            System.err.println("ERROR: Unable to serve reports over HTTP on port " + port + " : " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void stopHttpServer(ReportHttpServer httpServer) {
+        if (httpServer != null) {
+            httpServer.close();
+        }
+    }
+
+    private static void stopSocketServer(PackageSocketServer socketServer) {
+        if (socketServer != null) {
+            try {
+                socketServer.close();
+            } catch (IOException e) {
+                System.err.println("ERROR: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * System property "bsctest.journal.fsync" is one of {@link FsyncPolicy} (always by default),
+     * "bsctest.journal.fsyncIntervalMillis" is interval for policy interval.
+     */
+    private static Journal openJournal() {
+        String journalFileName = System.getProperty("bsctest.journal");
+        if (journalFileName == null) {
+            return null;
+        }
+        try {
+            return new Journal(
+                    new File(journalFileName),
+                    FsyncPolicy.valueOf(System.getProperty("bsctest.journal.fsync", "always").toUpperCase()),
+                    Long.getLong("bsctest.journal.fsyncIntervalMillis", 1000)
+            );
+        } catch (IOException e) {
+            System.err.println("ERROR: Unable to open journal " + journalFileName + " : " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Replays the journal after initial load (which is not journaled), or after the snapshot from
+     * the position where the snapshot was taken.
+     */
+    private static void replayJournal(StoreSnapshot snapshot) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            long replayedPackages = snapshot != null
+                    ? journal.replay(packageStore, snapshot.getJournalPosition())
+                    : journal.replay(packageStore);
+            System.out.println("Journal replayed: " + replayedPackages + " packages");
+        } catch (IOException e) {
+            System.err.println("ERROR: Unable to replay journal : " + e.getMessage());
+            closeJournal();
+            journal = null;
+        }
+    }
+
+    private static void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("ERROR: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return Snapshot, if there is one taken from the same initial files and the same journal,
+     * otherwise null.
+     */
+    private static StoreSnapshot readSnapshot() {
+        String snapshotFileName = System.getProperty("bsctest.snapshot");
+        if (snapshotFileName == null || !new File(snapshotFileName).exists()) {
+            return null;
+        }
+        try {
+            StoreSnapshot snapshot = StoreSnapshot.read(new File(snapshotFileName));
+            if (snapshot.getSourceFingerprint() != sourceFingerprint
+                    || (journal != null && snapshot.getJournalId() != journal.getId())
+                    || (packageStore.isKeepingPackages() && !snapshot.hasPackages())
+                    || (packageStore.isKeepingWeightCounts() && !snapshot.hasWeightCounts())
+                    || (packageStore.isKeepingWeightSketches() && !snapshot.hasWeightSketches())) {
+                System.out.println("Snapshot skipped, initial files, journal or options changed");
+                return null;
+            }
+            return snapshot;
+        } catch (IOException e) {
+            System.err.println("ERROR: Unable to load snapshot from file " + snapshotFileName + " : " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Thread writeSnapshotPeriodically() {
+        if (System.getProperty("bsctest.snapshot") == null || shardCoordinator != null) {
+            return null;
+        }
+        long intervalSeconds = Long.getLong("bsctest.snapshot.intervalSeconds", 300);
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    TimeUnit.SECONDS.sleep(intervalSeconds);
+                    writeSnapshot();
+                }
+            } catch (InterruptedException e) {
+                // Stopped
+            }
+        }, "snapshot-writer");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Stops writing periodically and writes the last snapshot.
+     */
+    private static void stopSnapshotWriter(Thread snapshotWriter) throws InterruptedException {
+        if (snapshotWriter != null) {
+            snapshotWriter.interrupt();
+            snapshotWriter.join();
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Snapshot is consistent with the journal, it contains exactly the journaled changes before its
+     * position. The journal is forced before the snapshot is written, so that the position is never
+     * beyond what survives.
+     */
+    private static synchronized void writeSnapshot() {
+        String snapshotFileName = System.getProperty("bsctest.snapshot");
+        try {
+            StoreSnapshot snapshot;
+            if (journal != null) {
+                Journal currentJournal = journal;
+                snapshot = currentJournal.atCut(position -> StoreSnapshot.capture(
+                        packageStore, currentJournal.getId(), position, sourceFingerprint
+                ));
+                currentJournal.sync();
+            } else {
+                snapshot = StoreSnapshot.capture(packageStore, 0, 0, sourceFingerprint);
+            }
+            snapshot.writeTo(new File(snapshotFileName));
+        } catch (IOException e) {
+            System.err.println("ERROR: Unable to write snapshot to file " + snapshotFileName + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Sink for one thread, which journals packages before they get into the store, or the
+     * shard coordinator in sharded mode.
+     */
+    private static PackageSink toJournaledSink(PackageStore store) {
+        if (shardCoordinator != null) {
+            return shardCoordinator;
+        }
+        return journal != null ? journal.newWriter(store) : store;
+    }
+
     /**
      * Take and process command line argument specified at program run – filename of file containing
      * lines in same format as user can enter in command line. This is considered as initial load of
@@ -87,9 +688,14 @@ public class Main {
         if (args.length > 0) {
             String initialLoadOfPackagesFileName = args[0];
             File initialLoadOfPackages = new File(initialLoadOfPackagesFileName);
-            List<String> lines = null;
             try {
-                lines = FileUtils.readLines(initialLoadOfPackages, "US-ASCII");
+                if (shardCoordinator != null) {
+                    PackageLineLoader lineLoader = new PackageLineLoader(shardCoordinator);
+                    LineFileReader.forEachLine(initialLoadOfPackages, lineLoader::load);
+                    shardCoordinator.flush();
+                } else {
+                    new PackageFileLoader().load(initialLoadOfPackages, packageStore);
+                }
                 System.out.println("Initial packages loaded");
             } catch (IOException e) {
                 System.err.println(
@@ -99,13 +705,6 @@ public class Main {
                         + e.getMessage()
                 );
             }
-            if (lines != null) {
-                for (String line : lines) {
-                    if (StringUtils.isNotBlank(line)) {
-                        loadPackageLine(line);
-                    }
-                }
-            }
         }
     }
 
@@ -118,10 +717,9 @@ public class Main {
     private static void loadInitialFeesFromFile(String[] args) {
         if (args.length > 1) {
             String initialLoadOfFeesFileName = args[1];
-            File initialLoadOfFees = new File(initialLoadOfFeesFileName);
-            List<String> lines = null;
+            feesFileName = initialLoadOfFeesFileName;
             try {
-                lines = FileUtils.readLines(initialLoadOfFees, "US-ASCII");
+                setFeeTable(loadFeesFromFile(new File(initialLoadOfFeesFileName)));
                 System.out.println("Initial fees loaded");
             } catch (IOException e) {
                 System.err.println(
@@ -131,60 +729,78 @@ public class Main {
                         + e.getMessage()
                 );
             }
-            if (lines != null) {
-                for (String line : lines) {
-                    if (StringUtils.isNotBlank(line)) {
-                        loadFeeLine(line);
-                    }
-                }
-            }
         }
     }
 
     /**
-     * Package line format: [weight: positive number, >0, maximal 3 decimal places, . (dot) as
-     * decimal separator][space][postal code: fixed 5 digits]
+     * Reload fees, when user enters "reload" (from the file given at program run) or "reload
+     * [file name]". The new fee table is loaded aside and then replaces the current one at once,
+     * totals of fees are priced again by the new table, which needs packages or their weights to
+     * be kept. If the file can not be read, current fees are kept.
      */
-    private static void loadPackageLine(String line) {
-        String[] inputParameters = line.split(" ");
-        if (inputParameters.length != 2) {
-            System.err.println(
-                    "ERROR: 2 input parameters expected per package line, get " + inputParameters.length + "."
-            );
-            return;
+    private static void reloadFees(String command) {
+        String fileName = command.substring("reload".length()).trim();
+        if (fileName.isEmpty()) {
+            fileName = feesFileName;
         }
-        double weightInKg;
-        try {
-            weightInKg = Double.valueOf(inputParameters[0]);
-        } catch (NumberFormatException e) {
-            System.err.println(
-                    "ERROR: First input parameter for package line should be float, is '" + inputParameters[0] + "'."
-            );
+        if (fileName == null) {
+            System.err.println("ERROR: File name of fees expected, e.g. 'reload fees.txt'.");
             return;
         }
-        String postalCode = inputParameters[1];
-        Package _package = new Package(weightInKg, postalCode);
-        if (isValid(_package)) {
-            synchronized (packagesSortedByPostalCode) {
-                List<Package> packageList
-                        = packagesSortedByPostalCode.getOrDefault(postalCode, new ArrayList<>());
-                packageList.add(_package);
-                packagesSortedByPostalCode.put(postalCode, packageList);
+        try {
+            FeeTable feeTable = loadFeesFromFile(new File(fileName));
+            if (!packageStore.canPriceAgain()) {
+                System.err.println("ERROR: Fees can not be reloaded, packages can not be priced again without"
+                        + " bsctest.keepWeightCounts or bsctest.keepPackages set to true.");
+                return;
             }
-
+            if (journal != null) {
+                try {
+                    journal.writeFeeTable(feeTable, packageStore);
+                } catch (IOException e) {
+                    System.err.println("ERROR: Fees from file " + fileName + " are not reloaded : " + e.getMessage());
+                    return;
+                }
+            } else {
+                setFeeTable(feeTable);
+            }
+            feesFileName = fileName;
+            System.out.println("Fees reloaded");
+        } catch (IOException e) {
+            System.err.println("ERROR: Unable to load fees from file " + fileName + " : " + e.getMessage());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.err.println("ERROR: Fees from file " + fileName + " are rejected: " + e.getMessage());
         }
     }
 
-    private static boolean isValid(Package _package) {
-        Validator validator = new Validator();
-        List<ConstraintViolation> violations = validator.validate(_package);
-        if (!violations.isEmpty()) {
-            System.err.println(
-                    "ERROR: Package " + _package + " is invalid: " + StringUtils.join(violations, ", ")
-            );
-            return false;
+    /**
+     * Fee table of the store tells whether output is with fees, also in sharded mode, where shards
+     * price their packages.
+     */
+    private static void setFeeTable(FeeTable feeTable) {
+        packageStore.setFeeTable(feeTable);
+        if (shardCoordinator != null) {
+            shardCoordinator.setFeeTable(feeTable);
         }
-        return true;
+    }
+
+    /**
+     * Invalid lines are skipped, see {@link #loadFeeLine(String, FeeTable.Builder)}.
+     */
+    private static FeeTable loadFeesFromFile(File file) throws IOException {
+        FeeTable.Builder loadedFees = new FeeTable.Builder();
+        LineParser parser = lineParser.get();
+        LineFileReader.forEachLine(file, (buffer, from, to) -> {
+            if (parser.parseFeeLine(buffer, from, to)) {
+                loadedFees.put(parser.getWeightInGrams(), parser.getFeeInCents());
+            } else {
+                String line = LineFileReader.toString(buffer, from, to);
+                if (StringUtils.isNotBlank(line)) {
+                    loadFeeLine(line, loadedFees);
+                }
+            }
+        });
+        return loadedFees.build();
     }
 
     /**
@@ -192,87 +808,128 @@ public class Main {
      * separator][space][fee: positive number, >=0, fixed two decimals, . (dot) as decimal
      * separator]
      */
-    private static void loadFeeLine(String line) {
-        String[] inputParameters = line.split(" ");
-        if (inputParameters.length != 2) {
-            System.err.println(
-                    "ERROR: 2 input parameters expected per fee line, get " + inputParameters.length + "."
-            );
-            return;
-        }
-        double weightInKg;
-        try {
-            weightInKg = Double.valueOf(inputParameters[0]);
-        } catch (NumberFormatException e) {
-            System.err.println(
-                    "ERROR: First input parameter for fee line should be float, is '" + inputParameters[0] + "'."
-            );
-            return;
-        }
-        double feeValue;
-        try {
-            feeValue = Double.valueOf(inputParameters[1]);
-        } catch (NumberFormatException e) {
-            System.err.println(
-                    "ERROR: Second input parameter for fee line should be float, is '" + inputParameters[0] + "'."
-            );
-            return;
-        }
-        Fee fee = new Fee(weightInKg, feeValue);
-        if (isValid(fee)) {
-            feesSortedByWeightDesc.put(BigDecimal.valueOf(weightInKg), fee);
+    private static void loadFeeLine(String line, FeeTable.Builder loadedFees) {
+        LineParser parser = lineParser.get();
+        if (parser.parseFeeLine(line)) {
+            loadedFees.put(parser.getWeightInGrams(), parser.getFeeInCents());
+        } else {
+            Fee fee = LenientLineParser.parseFeeLine(line);
+            if (fee != null) {
+                loadedFees.put(fee.getWeightInGrams(), fee.getFeeInCents());
+            }
         }
     }
 
-    private static boolean isValid(Fee fee) {
-        Validator validator = new Validator();
-        List<ConstraintViolation> violations = validator.validate(fee);
-        if (!violations.isEmpty()) {
-            System.err.println(
-                    "ERROR: Fee " + fee + " is invalid: " + StringUtils.join(violations, ", ")
-            );
-            return false;
-        }
-        return true;
+    /**
+     * Once per minute (or every "bsctest.report.intervalSeconds") - write output to console, each
+     * line consists of postal code and total weight of all packages for that postal code
+     */
+    private static ScheduledExecutorService writeOutputToConsolePeriodically() {
+        ScheduledExecutorService outputPrinter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "output-printer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        outputPrinter.scheduleAtFixedRate(
+                new OutputPrinterRunnable(), 0, Long.getLong("bsctest.report.intervalSeconds", 60), TimeUnit.SECONDS
+        );
+        return outputPrinter;
     }
 
     /**
-     * Once per minute - write output to console, each line consists of postal code and total weight
-     * of all packages for that postal code
+     * Waits for output being written, if any, and writes the final output.
      */
-    private static OutputPrinterRunnable writeOutputToConsoleOncePerMinute() {
-        OutputPrinterRunnable outputPrinter = new OutputPrinterRunnable();
-        Thread thread = new Thread(outputPrinter);
-        thread.start();
-        return outputPrinter;
+    private static void stopOutputPrinter(ScheduledExecutorService outputPrinter) throws InterruptedException {
+        outputPrinter.shutdown();
+        outputPrinter.awaitTermination(1, TimeUnit.MINUTES);
+        printOutput();
     }
 
     static class OutputPrinterRunnable implements Runnable {
 
-        private volatile boolean exit = false;
+        private final int checkpointEvery = Math.max(1, Integer.getInteger("bsctest.report.checkpointEvery", 10));
+
+        private long tick;
 
         @Override
         public void run() {
-            while (!exit) {
-                printOutput();
+            // Not interleaved with output of commands, see executeCommand(String)
+            synchronized (System.out) {
                 try {
-                    TimeUnit.SECONDS.sleep(60);
-                } catch (InterruptedException ex) {
-                    System.err.print(ex.getMessage());
+                    if (deltaReport == null || tick % checkpointEvery == 0) {
+                        printOutput();
+                    } else {
+                        printChangedOutput();
+                    }
+                } catch (RuntimeException e) {
+                    // Next outputs are written anyway
+                    System.err.println("ERROR: " + e);
                 }
             }
+            tick++;
         }
+    }
 
-        public void stop() {
-            exit = true;
+    private static void printOutput() {
+        if (deltaReport != null) {
+            deltaReport.reset();
         }
+        writeOutput(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        printRegions();
     }
 
-    private static void printOutput() {
-        System.out.println("Packages:");
-        String output = getOutput();
+    /**
+     * Rows are streamed to console without building the whole output as a String, by
+     * {@link ReportCache}, which renders only rows changed since the previous output, or by
+     * {@link ReportWriter} in sharded mode.
+     */
+    private static void writeOutput(Writer output) {
+        String lineSeparator = System.lineSeparator();
+        try {
+            output.write("Packages:" + lineSeparator);
+            long startNanos = System.nanoTime();
+            int rows;
+            if (shardCoordinator != null) {
+                ReportSnapshot snapshot = shardCoordinator.collect();
+                ReportWriter.write(snapshot, output);
+                rows = snapshot.size();
+            } else {
+                rows = reportCache.write(output);
+            }
+            if (rows == 0) {
+                output.write("none" + lineSeparator);
+            }
+            Metrics.REPORT_LATENCY.recordSince(startNanos);
+            output.write(lineSeparator);
+            output.flush();
+        } catch (IOException e) {
+            System.err.println("ERROR: Unable to write output : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Regions (postal code prefixes of "bsctest.report.regionDigits" digits, 1 to 3) are written
+     * after postal codes, if requested.
+     */
+    private static void printRegions() {
+        int regionDigits = Integer.getInteger("bsctest.report.regionDigits", 0);
+        if (regionDigits < 1 || regionDigits > 3 || shardCoordinator != null) {
+            return;
+        }
+        System.out.println("Regions:");
+        String output = RegionReport.format(packageStore, regionDigits, !packageStore.getFeeTable().isEmpty());
+        System.out.println(StringUtils.isNotEmpty(output) ? output : "none");
+        System.out.println();
+    }
+
+    /**
+     * Delta reporting mode - print only postal codes changed since the previous report.
+     */
+    private static void printChangedOutput() {
+        System.out.println("Changed packages:");
+        String output = deltaReport.getOutput(!packageStore.getFeeTable().isEmpty());
         if (StringUtils.isNotEmpty(output)) {
-            System.out.println(getOutput());
+            System.out.println(output);
         } else {
             System.out.println("none");
         }
@@ -285,64 +942,19 @@ public class Main {
      * decimal separator]
      */
     public static String getOutput() {
-        SortedMap<BigDecimal, List<String>> outputLinesSortedByTotalWeight
-                = new TreeMap<>((Comparator<BigDecimal>) (o1, o2) -> o2.compareTo(o1));
-        StringBuilder outputLines = new StringBuilder();
-        synchronized (packagesSortedByPostalCode) {
-            for (Map.Entry<String, List<Package>> entry : packagesSortedByPostalCode.entrySet()) {
-                String postalCode = entry.getKey();
-                List<Package> packages = entry.getValue();
-                BigDecimal sumOfWeights = new BigDecimal(0);
-                for (Package _package : packages) {
-                    sumOfWeights = sumOfWeights.add(_package.getWeightInKg());
-                }
-                String outputLine
-                        = postalCode
-                        + String.format(" %.3f", sumOfWeights)
-                        + getProperFeeString(packages);
-                List<String> linesList
-                        = outputLinesSortedByTotalWeight.getOrDefault(sumOfWeights, new ArrayList<>());
-                linesList.add(outputLine);
-                outputLinesSortedByTotalWeight.put(sumOfWeights, linesList);
-            }
-        }
-        for (Map.Entry<BigDecimal, List<String>> entry : outputLinesSortedByTotalWeight.entrySet()) {
-            List<String> linesList = entry.getValue();
-            for (String line : linesList) {
-                outputLines.append(line).append(System.lineSeparator());
-            }
-        }
-        return outputLines.toString().trim();
-    }
-
-    private static String getProperFeeString(List<Package> packages) {
-        if (!feesSortedByWeightDesc.isEmpty()) {
-            BigDecimal properFee = new BigDecimal(0);
-            for (Package _package : packages) {
-                properFee = properFee.add(getProperFee(_package));
-            }
-            return String.format(" %.2f", properFee);
-        }
-        return "";
+        long startNanos = System.nanoTime();
+        String output = shardCoordinator != null
+                ? ReportFormatter.format(shardCoordinator.collect())
+                : reportCache.getOutput();
+        Metrics.REPORT_LATENCY.recordSince(startNanos);
+        return output;
     }
 
     /**
-     * If fees are: 10 kg => 5.00 Eur, 5 kg => 2.50 Eur, 3 kg => 2.00 Eur
-     *
-     * - delivery fee of package weighing more than or exactly 10 (kg) is 5.00 (Eur),
-     *
-     * - delivery fee of package weighing more than or exactly 5 (kg) and less than 10 (kg) is 2.50
-     * (Eur), etc.
-     */
-    private static BigDecimal getProperFee(Package _package) {
-        for (Map.Entry<BigDecimal, Fee> entry : feesSortedByWeightDesc.entrySet()) {
-            BigDecimal feeWeight = entry.getKey();
-            BigDecimal feeValue = entry.getValue().getFee();
-            if (_package.getWeightInKg().doubleValue() >= feeWeight.doubleValue()) {
-                return feeValue;
-            }
-        }
-        return new BigDecimal(0);
+     * @return Rows of the report, merged from shards in sharded mode.
+     */
+    private static ReportSnapshot publishReport() {
+        return shardCoordinator != null ? shardCoordinator.collect() : reportIndex.publish();
     }
 
 }
@@ -0,0 +1,158 @@
+package cz.stanislavsimek.bsctest.fee;
+
+import cz.stanislavsimek.bsctest.model.Fee;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable fee table compiled from loaded fees. Fee of a package is the fee of the highest
+ * threshold, which is less than or equal to the package weight, or zero if there is no such
+ * threshold.
+ *
+ * Lookup is binary search over sorted thresholds in grams, or direct index by grams, when the
+ * highest threshold is small enough.
+ */
+public final class FeeTable {
+
+    /**
+     * Highest threshold (about 65 kg), up to which the fee is looked up directly by grams.
+     */
+    static final int MAX_DIRECT_LOOKUP_GRAMS = 1 << 16;
+
+    public static final FeeTable EMPTY = new FeeTable(new long[0], new long[0]);
+
+    private final long[] thresholdsInGrams;
+    private final long[] feesInCents;
+
+    /**
+     * Fee in cents by weight in grams, up to the highest threshold, or null.
+     */
+    private final long[] feesInCentsByGrams;
+
+    private FeeTable(long[] thresholdsInGrams, long[] feesInCents) {
+        this.thresholdsInGrams = thresholdsInGrams;
+        this.feesInCents = feesInCents;
+        int size = thresholdsInGrams.length;
+        if (size > 0 && thresholdsInGrams[size - 1] < MAX_DIRECT_LOOKUP_GRAMS) {
+            feesInCentsByGrams = new long[(int) thresholdsInGrams[size - 1] + 1];
+            int tier = -1;
+            for (int grams = 0; grams < feesInCentsByGrams.length; grams++) {
+                while (tier + 1 < size && thresholdsInGrams[tier + 1] <= grams) {
+                    tier++;
+                }
+                feesInCentsByGrams[grams] = tier < 0 ? 0 : feesInCents[tier];
+            }
+        } else {
+            feesInCentsByGrams = null;
+        }
+    }
+
+    /**
+     * @param fees Valid fees, in any order.
+     */
+    public static FeeTable compile(Collection<Fee> fees) {
+        Builder builder = new Builder();
+        for (Fee fee : fees) {
+            builder.put(fee.getWeightInGrams(), fee.getFeeInCents());
+        }
+        return builder.build();
+    }
+
+    public boolean isEmpty() {
+        return thresholdsInGrams.length == 0;
+    }
+
+    public int size() {
+        return thresholdsInGrams.length;
+    }
+
+    public long getThresholdInGrams(int tier) {
+        return thresholdsInGrams[tier];
+    }
+
+    public long getFeeInCentsOfTier(int tier) {
+        return feesInCents[tier];
+    }
+
+    /**
+     * If fees are: 10 kg => 5.00 Eur, 5 kg => 2.50 Eur, 3 kg => 2.00 Eur
+     *
+     * - delivery fee of package weighing more than or exactly 10 (kg) is 5.00 (Eur),
+     *
+     * - delivery fee of package weighing more than or exactly 5 (kg) and less than 10 (kg) is 2.50
+     * (Eur), etc.
+     */
+    public long getFeeInCents(long weightInGrams) {
+        if (feesInCentsByGrams != null) {
+            if (weightInGrams < feesInCentsByGrams.length) {
+                return feesInCentsByGrams[(int) weightInGrams];
+            }
+            return feesInCents[feesInCents.length - 1];
+        }
+        int tier = getTier(weightInGrams);
+        return tier < 0 ? 0 : feesInCents[tier];
+    }
+
+    /**
+     * @return Index of the highest threshold less than or equal to the weight, or -1.
+     */
+    public int getTier(long weightInGrams) {
+        int low = 0;
+        int high = thresholdsInGrams.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (thresholdsInGrams[middle] <= weightInGrams) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Collects fees as they are loaded, fee of an already loaded weight is replaced.
+     */
+    public static final class Builder {
+
+        private long[] thresholdsInGrams = new long[16];
+        private long[] feesInCents = new long[16];
+        private int size;
+
+        public Builder put(long thresholdInGrams, long feeInCents) {
+            for (int i = 0; i < size; i++) {
+                if (thresholdsInGrams[i] == thresholdInGrams) {
+                    feesInCents[i] = feeInCents;
+                    return this;
+                }
+            }
+            if (size == thresholdsInGrams.length) {
+                thresholdsInGrams = Arrays.copyOf(thresholdsInGrams, size * 2);
+                feesInCents = Arrays.copyOf(feesInCents, size * 2);
+            }
+            thresholdsInGrams[size] = thresholdInGrams;
+            feesInCents[size] = feeInCents;
+            size++;
+            return this;
+        }
+
+        public FeeTable build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (o1, o2) -> Long.compare(thresholdsInGrams[o1], thresholdsInGrams[o2]));
+            long[] sortedThresholdsInGrams = new long[size];
+            long[] sortedFeesInCents = new long[size];
+            for (int i = 0; i < size; i++) {
+                sortedThresholdsInGrams[i] = thresholdsInGrams[order[i]];
+                sortedFeesInCents[i] = feesInCents[order[i]];
+            }
+            return new FeeTable(sortedThresholdsInGrams, sortedFeesInCents);
+        }
+    }
+}
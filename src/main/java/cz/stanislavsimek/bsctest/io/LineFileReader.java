@@ -0,0 +1,133 @@
+package cz.stanislavsimek.bsctest.io;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads lines of a US-ASCII file through memory mapped windows, without reading the whole file
+ * into memory and without creating a String per line.
+ */
+public final class LineFileReader {
+
+    /**
+     * Size of the file part mapped at once.
+     */
+    static final int WINDOW_SIZE = 64 << 20;
+
+    private static final int LINE_BREAK_SEARCH_SIZE = 256;
+
+    private LineFileReader() {
+    }
+
+    public interface LineConsumer {
+
+        /**
+         * @param buffer Buffer containing the line, valid only during this call.
+         * @param from Index of the first character of the line.
+         * @param to Index after the last character of the line, without line break.
+         */
+        void accept(ByteBuffer buffer, int from, int to) throws IOException;
+    }
+
+    /**
+     * Opens the file for reading, with the same error messages as commons-io.
+     */
+    public static FileChannel open(File file) throws IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException("File '" + file + "' does not exist");
+        }
+        if (file.isDirectory()) {
+            throw new IOException("File '" + file + "' exists but is a directory");
+        }
+        if (!file.canRead()) {
+            throw new IOException("File '" + file + "' cannot be read");
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    public static void forEachLine(File file, LineConsumer consumer) throws IOException {
+        try (FileChannel channel = open(file)) {
+            forEachLine(channel, 0, channel.size(), consumer);
+        }
+    }
+
+    /**
+     * @param from Position of the start of a line.
+     * @param to Position of the start of a line, or end of the file.
+     */
+    public static void forEachLine(FileChannel channel, long from, long to, LineConsumer consumer)
+            throws IOException {
+        forEachLine(channel, from, to, consumer, WINDOW_SIZE);
+    }
+
+    static void forEachLine(FileChannel channel, long from, long to, LineConsumer consumer, int windowSize)
+            throws IOException {
+        long position = from;
+        while (position < to) {
+            int size = (int) Math.min(windowSize, to - position);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            int lineStart = 0;
+            for (int i = 0; i < size; i++) {
+                if (buffer.get(i) == '\n') {
+                    consumer.accept(buffer, lineStart, withoutCarriageReturn(buffer, lineStart, i));
+                    lineStart = i + 1;
+                }
+            }
+            if (position + size == to || lineStart == 0) {
+                // Last window, or a line longer than the window
+                if (lineStart < size) {
+                    consumer.accept(buffer, lineStart, withoutCarriageReturn(buffer, lineStart, size));
+                }
+                position += size;
+            } else {
+                // Incomplete line at the end of the window goes to the next one
+                position += lineStart;
+            }
+        }
+    }
+
+    /**
+     * @return Position of the start of the first line starting at or after the position, or size
+     * of the file.
+     */
+    public static long nextLineStart(FileChannel channel, long position) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(LINE_BREAK_SEARCH_SIZE);
+        long searched = position - 1;
+        long size = channel.size();
+        while (searched < size) {
+            buffer.clear();
+            int read = channel.read(buffer, searched);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return searched + i + 1;
+                }
+            }
+            searched += read;
+        }
+        return size;
+    }
+
+    public static String toString(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            bytes[i - from] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static int withoutCarriageReturn(ByteBuffer buffer, int from, int to) {
+        return to > from && buffer.get(to - 1) == '\r' ? to - 1 : to;
+    }
+}
@@ -0,0 +1,108 @@
+package cz.stanislavsimek.bsctest.io;
+
+import cz.stanislavsimek.bsctest.store.PackageStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads packages from a file in parallel. The file is split into one chunk per core at line
+ * boundaries, every chunk is read through memory mapped windows into its own partial totals, which
+ * are merged at the end. Extra memory does not depend on the size of the file.
+ *
+ * Errors of invalid lines are printed as the chunks are loaded, not necessarily in file order.
+ */
+public class PackageFileLoader {
+
+    /**
+     * Smaller files are not split, partial totals are not worth it.
+     */
+    static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    private final ForkJoinPool pool;
+
+    public PackageFileLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public PackageFileLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void load(File file, PackageStore store) throws IOException {
+        try (FileChannel channel = LineFileReader.open(file)) {
+            long size = channel.size();
+            int chunks = (int) Math.max(1, Math.min(pool.getParallelism(), size / MIN_CHUNK_SIZE));
+            if (chunks == 1) {
+                new ChunkLoader(channel, 0, size, store).call();
+                return;
+            }
+            List<ChunkLoader> chunkLoaders = new ArrayList<>(chunks);
+            long chunkStart = 0;
+            for (int i = 1; i <= chunks; i++) {
+                long chunkEnd = i == chunks ? size : LineFileReader.nextLineStart(channel, size * i / chunks);
+                if (chunkEnd > chunkStart) {
+                    PackageStore partialStore = new PackageStore(
+                            store.isKeepingPackages(), store.isKeepingWeightCounts(), 0, 0, store.isKeepingWeightSketches()
+                    );
+                    partialStore.setFeeTable(store.getFeeTable());
+                    chunkLoaders.add(new ChunkLoader(channel, chunkStart, chunkEnd, partialStore));
+                    chunkStart = chunkEnd;
+                }
+            }
+            List<Future<PackageStore>> partialStores = pool.invokeAll(chunkLoaders);
+            // Merged in file order, so that kept packages are in file order too
+            for (Future<PackageStore> partialStore : partialStores) {
+                store.addAll(partialStore.get());
+            }
+        } catch (IllegalArgumentException e) {
+            // Partial totals together exceed the maximum of the store
+            throw new IOException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static class ChunkLoader implements Callable<PackageStore>, LineFileReader.LineConsumer {
+
+        private final FileChannel channel;
+        private final long from;
+        private final long to;
+        private final PackageStore store;
+        private final PackageLineLoader lineLoader;
+
+        ChunkLoader(FileChannel channel, long from, long to, PackageStore store) {
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+            this.store = store;
+            // Packages of files are not recent, they are not added to windowed totals
+            this.lineLoader = new PackageLineLoader(store::addPast);
+        }
+
+        @Override
+        public PackageStore call() throws IOException {
+            LineFileReader.forEachLine(channel, from, to, this);
+            return store;
+        }
+
+        @Override
+        public void accept(ByteBuffer buffer, int lineFrom, int lineTo) {
+            lineLoader.load(buffer, lineFrom, lineTo);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package cz.stanislavsimek.bsctest.io;
+
+import cz.stanislavsimek.bsctest.metrics.Metrics;
+import cz.stanislavsimek.bsctest.model.Package;
+import cz.stanislavsimek.bsctest.parser.LenientLineParser;
+import cz.stanislavsimek.bsctest.parser.LineParser;
+import cz.stanislavsimek.bsctest.store.PackageSink;
+import cz.stanislavsimek.bsctest.store.PostalCodes;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Loads package lines into the sink (usually the store), first by {@link LineParser}, then by
+ * {@link LenientLineParser}, which prints the error of an invalid line. A package rejected by the
+ * sink (see {@link PackageSink#add(int, long)}) is printed as an error too. It is not thread safe,
+ * every thread needs its own instance.
+ */
+public final class PackageLineLoader {
+
+    public enum Result {
+        ACCEPTED, REJECTED, BLANK
+    }
+
+    private final PackageSink sink;
+    private final LineParser parser = new LineParser();
+
+    public PackageLineLoader(PackageSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Package line format: [weight: positive number, >0, maximal 3 decimal places, . (dot) as
+     * decimal separator][space][postal code: fixed 5 digits]
+     */
+    public Result load(String line) {
+        if (parser.parsePackageLine(line)) {
+            return add(parser.getPostalCode(), parser.getWeightInGrams());
+        }
+        return loadLeniently(line);
+    }
+
+    /**
+     * @see #load(String)
+     */
+    public Result load(ByteBuffer buffer, int from, int to) {
+        if (parser.parsePackageLine(buffer, from, to)) {
+            return add(parser.getPostalCode(), parser.getWeightInGrams());
+        }
+        return loadLeniently(LineFileReader.toString(buffer, from, to));
+    }
+
+    private Result loadLeniently(String line) {
+        if (StringUtils.isBlank(line)) {
+            return Result.BLANK;
+        }
+        long startNanos = System.nanoTime();
+        Package _package = LenientLineParser.parsePackageLine(line);
+        Metrics.VALIDATION_LATENCY.recordSince(startNanos);
+        if (_package == null) {
+            Metrics.REJECTED_LINES.increment();
+            return Result.REJECTED;
+        }
+        return add(PostalCodes.toIndex(_package.getDestinationPostalCode()), _package.getWeightInGrams());
+    }
+
+    private Result add(int postalCode, long weightInGrams) {
+        try {
+            sink.add(postalCode, weightInGrams);
+        } catch (IllegalArgumentException e) {
+            printRejected(postalCode, weightInGrams, e);
+            Metrics.REJECTED_LINES.increment();
+            return Result.REJECTED;
+        }
+        Metrics.ACCEPTED_LINES.increment();
+        return Result.ACCEPTED;
+    }
+
+    /**
+     * Prints the error of a valid package, which was not added, e.g. because totals of its postal
+     * code would exceed their maximum or it could not be journaled.
+     */
+    public static void printRejected(int postalCode, long weightInGrams, Exception e) {
+        System.err.println(
+                "ERROR: Package " + BigDecimal.valueOf(weightInGrams, 3) + " kg => " + PostalCodes.toString(postalCode)
+                + " is rejected: " + Objects.toString(e.getMessage(), e.toString())
+        );
+    }
+}
@@ -0,0 +1,24 @@
+package cz.stanislavsimek.bsctest.journal;
+
+/**
+ * When journal records are forced to the storage device.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Before packages get into the store (group commit - one force for all records written
+     * meanwhile). Nothing reported or acknowledged is lost.
+     */
+    ALWAYS,
+
+    /**
+     * Periodically, packages accepted within the last interval may be lost on system crash (not on
+     * crash of the program).
+     */
+    INTERVAL,
+
+    /**
+     * Whenever operating system decides.
+     */
+    NEVER
+}
@@ -0,0 +1,510 @@
+package cz.stanislavsimek.bsctest.journal;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.io.PackageLineLoader;
+import cz.stanislavsimek.bsctest.store.PackageSink;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append only binary journal of accepted packages and reloaded fee tables, so that the store can
+ * be recovered after restart. Initial files given at program run are not journaled, they are
+ * loaded again at each run.
+ *
+ * File starts with magic number, version and random id of the journal, followed by frames:
+ * [payload length: int][CRC32 of payload: int][payload]. Payload is a sequence of records: package
+ * [P][postal code: int][weight in grams: long] or fee table [F][number of tiers: int]([threshold
+ * in grams: long][fee in cents: long])*. A frame is written at once, torn or corrupted frames at
+ * the end of the file (crash during write) are cut off by {@link #replay(PackageStore)}.
+ *
+ * Packages are written by {@link Writer}s in batches, a batch gets into the target sink only after
+ * it is written (and forced, see {@link FsyncPolicy}), so that the store never contains packages
+ * which would not be recovered. Similarly a fee table gets into the store only after it is
+ * written, see {@link #writeFeeTable(FeeTable, PackageStore)}. A snapshot of the store taken by
+ * {@link #atCut(Cut)} contains exactly the changes before a position in the journal. If forcing
+ * fails under {@link FsyncPolicy#ALWAYS}, frames written after the last forced one are cut off the
+ * file, so that changes rejected by the failure are not replayed after restart.
+ */
+public class Journal implements Closeable {
+
+    static final int MAGIC = 0x42534A4C;
+    static final int VERSION = 2;
+    static final int FILE_HEADER_SIZE = 16;
+    static final int FRAME_HEADER_SIZE = 8;
+
+    static final byte PACKAGE_RECORD = 'P';
+    static final byte FEE_TABLE_RECORD = 'F';
+    static final int PACKAGE_RECORD_SIZE = 1 + 4 + 8;
+
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Maximal number of packages in a frame.
+     */
+    private static final int WRITER_BATCH_SIZE = 4096;
+
+    private final File file;
+    private final FileChannel channel;
+    private final FsyncPolicy fsyncPolicy;
+
+    private final long id;
+
+    /**
+     * Read locked while a change is written and applied, write locked by {@link #atCut(Cut)}.
+     */
+    private final ReentrantReadWriteLock cutLock = new ReentrantReadWriteLock();
+
+    private final Object writeLock = new Object();
+    private final Object forceLock = new Object();
+
+    /**
+     * End of the last frame written, guarded by writeLock.
+     */
+    private long position;
+
+    /**
+     * End of the last frame forced to the storage device, guarded by writeLock.
+     */
+    private long durablePosition;
+
+    /**
+     * Positions the file was cut at after failed forcing, guarded by writeLock. Frames written
+     * between the i-th and (i+1)-th cut, which ended after the (i+1)-th cut position, are lost.
+     */
+    private final List<Long> cutPositions = new ArrayList<>();
+
+    private volatile boolean closed;
+    private final Thread fsyncThread;
+
+    /**
+     * @param fsyncIntervalMillis Interval of forcing for {@link FsyncPolicy#INTERVAL}.
+     */
+    public Journal(File file, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+        this.file = file;
+        this.fsyncPolicy = fsyncPolicy;
+        this.channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        try {
+            if (channel.size() < FILE_HEADER_SIZE) {
+                id = new SecureRandom().nextLong();
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(id);
+                header.flip();
+                writeFully(header, 0);
+                channel.truncate(FILE_HEADER_SIZE);
+                channel.force(true);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                readFully(header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException("File '" + file + "' is not a journal of version " + VERSION);
+                }
+                id = header.getLong();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        position = FILE_HEADER_SIZE;
+        durablePosition = FILE_HEADER_SIZE;
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            fsyncThread = new Thread(() -> forcePeriodically(fsyncIntervalMillis), "journal-fsync");
+            fsyncThread.setDaemon(true);
+            fsyncThread.start();
+        } else {
+            fsyncThread = null;
+        }
+    }
+
+    /**
+     * @return Random id, different for each journal file.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Adds all journaled packages and fee tables into the store and cuts off a torn end of the
+     * file. Has to be called before anything is written. Replayed packages are not recent, they are
+     * not added to windowed totals of the store.
+     *
+     * @return Number of packages replayed.
+     */
+    public long replay(PackageStore store) throws IOException {
+        return replay(store, FILE_HEADER_SIZE);
+    }
+
+    /**
+     * Like {@link #replay(PackageStore)}, but only changes from the position, returned by
+     * {@link #atCut(Cut)} before.
+     */
+    public long replay(PackageStore store, long fromPosition) throws IOException {
+        long packageCount = 0;
+        long size = channel.size();
+        if (fromPosition < FILE_HEADER_SIZE || fromPosition > size) {
+            throw new IOException("Position " + fromPosition + " is out of journal " + file);
+        }
+        long framePosition = fromPosition;
+        ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        ByteBuffer payload = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        CRC32 crc = new CRC32();
+        while (framePosition + FRAME_HEADER_SIZE <= size) {
+            frameHeader.clear();
+            readFully(frameHeader, framePosition);
+            int payloadLength = frameHeader.getInt(0);
+            int payloadCrc = frameHeader.getInt(4);
+            if (payloadLength <= 0 || payloadLength > size - framePosition - FRAME_HEADER_SIZE) {
+                break;
+            }
+            if (payloadLength > payload.capacity()) {
+                payload = ByteBuffer.allocateDirect(payloadLength);
+            }
+            payload.clear().limit(payloadLength);
+            readFully(payload, framePosition + FRAME_HEADER_SIZE);
+            payload.flip();
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != payloadCrc) {
+                break;
+            }
+            payload.flip();
+            long framePackageCount = replayFrame(payload, store);
+            if (framePackageCount < 0) {
+                break;
+            }
+            packageCount += framePackageCount;
+            framePosition += FRAME_HEADER_SIZE + payloadLength;
+        }
+        if (framePosition < size) {
+            System.err.println(
+                    "ERROR: Journal " + file + " is damaged after " + framePosition + " bytes, the rest is cut off."
+            );
+            channel.truncate(framePosition);
+            channel.force(true);
+        }
+        synchronized (writeLock) {
+            position = framePosition;
+            durablePosition = framePosition;
+        }
+        return packageCount;
+    }
+
+    /**
+     * @return Number of packages, or -1 if the frame is not valid.
+     */
+    private static long replayFrame(ByteBuffer payload, PackageStore store) {
+        long packageCount = 0;
+        while (payload.hasRemaining()) {
+            byte type = payload.get();
+            if (type == PACKAGE_RECORD && payload.remaining() >= PACKAGE_RECORD_SIZE - 1) {
+                int postalCode = payload.getInt();
+                long weightInGrams = payload.getLong();
+                try {
+                    store.addPast(postalCode, weightInGrams);
+                    packageCount++;
+                } catch (IllegalArgumentException e) {
+                    // Rejected as it was when journaled
+                    PackageLineLoader.printRejected(postalCode, weightInGrams, e);
+                }
+            } else if (type == FEE_TABLE_RECORD && payload.remaining() >= 4) {
+                int tiers = payload.getInt();
+                if (tiers < 0 || payload.remaining() != tiers * 16L) {
+                    return -1;
+                }
+                FeeTable.Builder feeTable = new FeeTable.Builder();
+                for (int tier = 0; tier < tiers; tier++) {
+                    feeTable.put(payload.getLong(), payload.getLong());
+                }
+                try {
+                    store.setFeeTable(feeTable.build());
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    System.err.println("ERROR: Journaled fees are rejected: " + e.getMessage());
+                }
+            } else {
+                return -1;
+            }
+        }
+        return packageCount;
+    }
+
+    /**
+     * @param target Sink receiving packages once they are journaled, usually the store.
+     * @return Writer for one thread.
+     */
+    public Writer newWriter(PackageSink target) {
+        return new Writer(target);
+    }
+
+    /**
+     * Journals the fee table, which then replaces the current one in the store.
+     *
+     * @throws IOException If the fee table can not be journaled, the current one is kept then.
+     */
+    public void writeFeeTable(FeeTable feeTable, PackageStore store) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + 1 + 4 + feeTable.size() * 16);
+        frame.position(FRAME_HEADER_SIZE);
+        frame.put(FEE_TABLE_RECORD).putInt(feeTable.size());
+        for (int tier = 0; tier < feeTable.size(); tier++) {
+            frame.putLong(feeTable.getThresholdInGrams(tier)).putLong(feeTable.getFeeInCentsOfTier(tier));
+        }
+        cutLock.readLock().lock();
+        try {
+            commit(frame);
+            store.setFeeTable(feeTable);
+        } finally {
+            cutLock.readLock().unlock();
+        }
+    }
+
+    public interface Cut<T> {
+
+        /**
+         * @param position End of the journal, changes before it are in the store, no other changes
+         * are.
+         */
+        T at(long position);
+    }
+
+    /**
+     * Runs the cut while no change is being written or applied, e.g. to take a snapshot of the
+     * store consistent with the journal. Writers wait meanwhile.
+     */
+    public <T> T atCut(Cut<T> cut) {
+        cutLock.writeLock().lock();
+        try {
+            long end;
+            synchronized (writeLock) {
+                end = position;
+            }
+            return cut.at(end);
+        } finally {
+            cutLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces everything written so far to the storage device.
+     */
+    public void sync() throws IOException {
+        long end;
+        int cuts;
+        synchronized (writeLock) {
+            end = position;
+            cuts = cutPositions.size();
+        }
+        awaitDurable(end, cuts);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (fsyncThread != null) {
+            fsyncThread.interrupt();
+        }
+        try {
+            if (fsyncPolicy != FsyncPolicy.NEVER) {
+                sync();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the frame (payload from {@link #FRAME_HEADER_SIZE} to position) and forces it, if the
+     * policy says so. Changes of a frame, which can not be committed, must not be applied. A frame
+     * written, but not forced, can be replayed after restart nevertheless, except under
+     * {@link FsyncPolicy#ALWAYS}, where it is cut off the file when forcing fails.
+     */
+    private void commit(ByteBuffer frame) throws IOException {
+        int payloadLength = frame.position() - FRAME_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(frame.array(), FRAME_HEADER_SIZE, payloadLength);
+        frame.putInt(0, payloadLength).putInt(4, (int) crc.getValue());
+        frame.flip();
+        try {
+            long end;
+            int cuts;
+            synchronized (writeLock) {
+                writeFully(frame, position);
+                position += frame.limit();
+                end = position;
+                cuts = cutPositions.size();
+            }
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                awaitDurable(end, cuts);
+            }
+        } catch (IOException e) {
+            String reason = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            throw new IOException("Unable to write journal " + file + " : " + reason, e);
+        }
+    }
+
+    /**
+     * Group commit - a thread forces all frames written so far, threads which wrote meanwhile do
+     * not need to force again. If forcing fails under {@link FsyncPolicy#ALWAYS}, all frames not
+     * forced yet are cut off, their threads fail too.
+     *
+     * @param end End of the frame.
+     * @param cuts Number of cuts when the frame was written.
+     */
+    private void awaitDurable(long end, int cuts) throws IOException {
+        if (isDurable(end, cuts)) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (isDurable(end, cuts)) {
+                return;
+            }
+            long written;
+            synchronized (writeLock) {
+                written = position;
+            }
+            try {
+                force();
+            } catch (IOException e) {
+                if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                    cutOff();
+                }
+                throw e;
+            }
+            synchronized (writeLock) {
+                durablePosition = written;
+            }
+        }
+    }
+
+    /**
+     * @throws IOException If the frame was cut off.
+     */
+    private boolean isDurable(long end, int cuts) throws IOException {
+        synchronized (writeLock) {
+            if (cuts < cutPositions.size() && end > cutPositions.get(cuts)) {
+                throw new IOException("Frame is cut off, forcing failed");
+            }
+            return durablePosition >= end;
+        }
+    }
+
+    /**
+     * Cuts off frames written after the last forced one, called holding forceLock.
+     */
+    private void cutOff() throws IOException {
+        synchronized (writeLock) {
+            cutPositions.add(durablePosition);
+            position = durablePosition;
+            channel.truncate(durablePosition);
+        }
+    }
+
+    /**
+     * Forces frames written to the storage device, overridden in tests to fail.
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    private void forcePeriodically(long intervalMillis) {
+        while (!closed) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(intervalMillis);
+                sync();
+            } catch (InterruptedException e) {
+                // Closed
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("ERROR: Unable to force journal " + file + " : " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, at);
+            if (read < 0) {
+                throw new IOException("Unexpected end of journal " + file);
+            }
+            at += read;
+        }
+    }
+
+    /**
+     * Journals packages in batches of one thread, the batch gets into the target on
+     * {@link #flush()} (or when it is full). Packages of a batch, which can not be journaled, are
+     * not added, each of them is reported on error output.
+     */
+    public final class Writer implements PackageSink {
+
+        private final PackageSink target;
+        private final int[] postalCodes = new int[WRITER_BATCH_SIZE];
+        private final long[] weightsInGrams = new long[WRITER_BATCH_SIZE];
+        private final ByteBuffer frame = ByteBuffer.allocate(
+                FRAME_HEADER_SIZE + WRITER_BATCH_SIZE * PACKAGE_RECORD_SIZE
+        );
+        private int size;
+
+        private Writer(PackageSink target) {
+            this.target = target;
+        }
+
+        @Override
+        public void add(int postalCode, long weightInGrams) {
+            postalCodes[size] = postalCode;
+            weightsInGrams[size] = weightInGrams;
+            if (++size == WRITER_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (size == 0) {
+                return;
+            }
+            frame.clear().position(FRAME_HEADER_SIZE);
+            for (int i = 0; i < size; i++) {
+                frame.put(PACKAGE_RECORD).putInt(postalCodes[i]).putLong(weightsInGrams[i]);
+            }
+            cutLock.readLock().lock();
+            try {
+                commit(frame);
+                for (int i = 0; i < size; i++) {
+                    try {
+                        target.add(postalCodes[i], weightsInGrams[i]);
+                    } catch (IllegalArgumentException e) {
+                        PackageLineLoader.printRejected(postalCodes[i], weightsInGrams[i], e);
+                    }
+                }
+                target.flush();
+            } catch (IOException e) {
+                // Not added, so that the store does not differ from the journal after restart
+                for (int i = 0; i < size; i++) {
+                    PackageLineLoader.printRejected(postalCodes[i], weightsInGrams[i], e);
+                }
+            } finally {
+                cutLock.readLock().unlock();
+            }
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package cz.stanislavsimek.bsctest.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the program, recorded on hot paths without allocation and
+ * without locks. Counters are striped ({@link LongAdder}), so that many threads can count at
+ * once. See {@link MetricsMXBean} for export.
+ */
+public final class Metrics {
+
+    /**
+     * Package lines accepted, from any source.
+     */
+    public static final LongAdder ACCEPTED_LINES = new LongAdder();
+
+    /**
+     * Package lines rejected as invalid, from any source.
+     */
+    public static final LongAdder REJECTED_LINES = new LongAdder();
+
+    /**
+     * Validation of lines not accepted by the fast parser (with errors printed for invalid ones).
+     */
+    public static final LatencyHistogram VALIDATION_LATENCY = new LatencyHistogram();
+
+    /**
+     * Adding a batch of parsed packages entered by user into the store.
+     */
+    public static final LatencyHistogram INGESTION_BATCH_LATENCY = new LatencyHistogram();
+
+    /**
+     * Building a report.
+     */
+    public static final LatencyHistogram REPORT_LATENCY = new LatencyHistogram();
+
+    private Metrics() {
+    }
+}
@@ -0,0 +1,97 @@
+package cz.stanislavsimek.bsctest.metrics;
+
+import cz.stanislavsimek.bsctest.pipeline.InputPipeline;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exports {@link Metrics} and state of the input pipeline over JMX and as text for the "stats"
+ * command.
+ */
+public class MetricsExporter implements MetricsMXBean {
+
+    private final InputPipeline inputPipeline;
+
+    public MetricsExporter(InputPipeline inputPipeline) {
+        this.inputPipeline = inputPipeline;
+    }
+
+    /**
+     * Registers into the platform MBean server, replacing a previously registered one.
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+    }
+
+    public void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Override
+    public long getAcceptedLines() {
+        return Metrics.ACCEPTED_LINES.sum();
+    }
+
+    @Override
+    public long getRejectedLines() {
+        return Metrics.REJECTED_LINES.sum();
+    }
+
+    @Override
+    public long getShedLines() {
+        return inputPipeline.getShedLines();
+    }
+
+    @Override
+    public long getShedPackages() {
+        return inputPipeline.getShedPackages();
+    }
+
+    @Override
+    public int getReaderLag() {
+        return inputPipeline.getBacklog();
+    }
+
+    @Override
+    public LatencySummary getValidationLatency() {
+        return Metrics.VALIDATION_LATENCY.getSummary();
+    }
+
+    @Override
+    public LatencySummary getIngestionBatchLatency() {
+        return Metrics.INGESTION_BATCH_LATENCY.getSummary();
+    }
+
+    @Override
+    public LatencySummary getReportLatency() {
+        return Metrics.REPORT_LATENCY.getSummary();
+    }
+
+    /**
+     * @return One metric per line.
+     */
+    @Override
+    public String toString() {
+        String nl = System.lineSeparator();
+        return "Accepted lines: " + getAcceptedLines() + nl
+                + "Rejected lines: " + getRejectedLines() + nl
+                + "Shed lines: " + getShedLines() + nl
+                + "Shed packages: " + getShedPackages() + nl
+                + "Reader lag: " + getReaderLag() + nl
+                + "Validation latency: " + getValidationLatency() + nl
+                + "Ingestion batch latency: " + getIngestionBatchLatency() + nl
+                + "Report latency: " + getReportLatency();
+    }
+}
@@ -0,0 +1,28 @@
+package cz.stanislavsimek.bsctest.metrics;
+
+/**
+ * Metrics exported over JMX, latencies in nanoseconds.
+ */
+public interface MetricsMXBean {
+
+    String OBJECT_NAME = "cz.stanislavsimek.bsctest:type=Metrics";
+
+    long getAcceptedLines();
+
+    long getRejectedLines();
+
+    long getShedLines();
+
+    long getShedPackages();
+
+    /**
+     * @return Number of lines and packages read from user input, but not yet in the store.
+     */
+    int getReaderLag();
+
+    LatencySummary getValidationLatency();
+
+    LatencySummary getIngestionBatchLatency();
+
+    LatencySummary getReportLatency();
+}
@@ -2,13 +2,22 @@ package cz.stanislavsimek.bsctest.model;
 
 import java.math.BigDecimal;
 import net.sf.oval.constraint.Digits;
+import net.sf.oval.constraint.Max;
 import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 
 public class Fee {
 
+    /**
+     * Maximal fee of a package (1 000 000 EUR), so that fees in cents always fit into a long.
+     */
+    public static final double MAX_FEE = 1000000;
+
+    public static final long MAX_FEE_IN_CENTS = 100000000L;
+
     @NotNull
     @Min(value = 0, inclusive = false)
+    @Max(value = Package.MAX_WEIGHT_IN_KG)
     @Digits(maxFraction = 3)
     private final BigDecimal weight;
 
@@ -17,6 +26,7 @@ public class Fee {
      */
     @NotNull
     @Min(value = 0, inclusive = true)
+    @Max(value = MAX_FEE)
     @Digits(maxFraction = 2)
     private final BigDecimal fee;
 
@@ -33,6 +43,20 @@ public class Fee {
         return fee;
     }
 
+    /**
+     * @return Weight in grams, the fee must be valid.
+     */
+    public long getWeightInGrams() {
+        return weight.movePointRight(3).longValueExact();
+    }
+
+    /**
+     * @return Fee in cents, the fee must be valid.
+     */
+    public long getFeeInCents() {
+        return fee.movePointRight(2).longValueExact();
+    }
+
     @Override
     public String toString() {
         return weight + " kg => " + fee + " EUR";
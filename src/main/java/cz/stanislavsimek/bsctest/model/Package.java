@@ -4,13 +4,23 @@ import java.math.BigDecimal;
 
 import net.sf.oval.constraint.Digits;
 import net.sf.oval.constraint.MatchPattern;
+import net.sf.oval.constraint.Max;
 import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 
 public class Package {
 
+    /**
+     * Maximal weight of a package (1 000 tonnes), the same for fee thresholds. Heavier weights
+     * are rejected by both parsers, so that weights in grams always fit into a long.
+     */
+    public static final double MAX_WEIGHT_IN_KG = 1000000;
+
+    public static final long MAX_WEIGHT_IN_GRAMS = 1000000000L;
+
     @NotNull
     @Min(value = 0, inclusive = false)
+    @Max(value = MAX_WEIGHT_IN_KG)
     @Digits(maxFraction = 3)
     private final BigDecimal weightInKg;
 
@@ -27,6 +37,13 @@ public class Package {
         return weightInKg;
     }
 
+    /**
+     * @return Weight in grams, the package must be valid.
+     */
+    public long getWeightInGrams() {
+        return weightInKg.movePointRight(3).longValueExact();
+    }
+
     public String getDestinationPostalCode() {
         return destinationPostalCode;
     }
@@ -0,0 +1,250 @@
+package cz.stanislavsimek.bsctest.net;
+
+import cz.stanislavsimek.bsctest.io.PackageLineLoader;
+import cz.stanislavsimek.bsctest.store.PackageSink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Accepts package lines over TCP, in the same format as user enters them in command line, one
+ * line per package ended by line break. Many connections are served by one thread with a non
+ * blocking selector, lines are parsed directly from pooled buffers into the same store as lines
+ * entered by user.
+ *
+ * After each read containing at least one line, the connection gets acknowledgement "ACK
+ * [accepted] [rejected]" with numbers of lines accepted and rejected over the connection so far.
+ * Blank lines are not counted. Errors of rejected lines are printed on error output. Accepted
+ * packages are flushed into the sink before they are acknowledged.
+ */
+public class PackageSocketServer implements Runnable, Closeable {
+
+    /**
+     * Maximal length of a line, longer lines are rejected.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    private static final int ACK_BUFFER_SIZE = 64;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final PackageSink sink;
+    private final PackageLineLoader lineLoader;
+
+    /**
+     * Free read buffers, used by the selector thread only.
+     */
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+
+    /**
+     * @param address Address to listen on, e.g. loopback address for local clients only.
+     * @param port Port to listen on, 0 for any free port.
+     */
+    public PackageSocketServer(InetAddress address, int port, PackageSink sink) throws IOException {
+        this.sink = sink;
+        this.lineLoader = new PackageLineLoader(sink);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(address, port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public Thread start() {
+        Thread thread = new Thread(this, "package-socket-server");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException e) {
+                        closeConnection(key);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Closed meanwhile
+        } catch (IOException e) {
+            System.err.println("ERROR: Package socket server failed : " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        channel.register(selector, SelectionKey.OP_READ, new Connection(buffer));
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = connection.in;
+        int read = channel.read(buffer);
+        if (read < 0) {
+            // Last line does not need line break
+            if (buffer.position() > 0 && !connection.skippingLongLine) {
+                connection.count(lineLoader.load(buffer, 0, buffer.position()));
+                buffer.clear();
+                acknowledge(key, connection);
+            }
+            if (!connection.out.hasRemaining()) {
+                closeConnection(key);
+            } else {
+                connection.closeAfterWrite = true;
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+            return;
+        }
+        int end = buffer.position();
+        int lineStart = 0;
+        boolean anyLine = false;
+        for (int i = 0; i < end; i++) {
+            if (buffer.get(i) == '\n') {
+                if (connection.skippingLongLine) {
+                    connection.skippingLongLine = false;
+                } else {
+                    int lineEnd = i > lineStart && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                    connection.count(lineLoader.load(buffer, lineStart, lineEnd));
+                }
+                anyLine = true;
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart == 0 && end == buffer.capacity()) {
+            // Line longer than the buffer
+            if (!connection.skippingLongLine) {
+                System.err.println("ERROR: Package line longer than " + BUFFER_SIZE + " characters.");
+                connection.rejected++;
+                anyLine = true;
+            }
+            connection.skippingLongLine = true;
+            buffer.clear();
+        } else {
+            buffer.limit(end).position(lineStart);
+            buffer.compact();
+        }
+        if (anyLine) {
+            acknowledge(key, connection);
+        }
+    }
+
+    /**
+     * Acknowledgements are cumulative, so a pending one is just replaced by the newer.
+     */
+    private void acknowledge(SelectionKey key, Connection connection) throws IOException {
+        sink.flush();
+        ByteBuffer out = connection.out;
+        out.clear();
+        byte[] ack = ("ACK " + connection.accepted + " " + connection.rejected + "\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        out.put(ack).flip();
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        channel.write(connection.out);
+        if (connection.out.hasRemaining()) {
+            key.interestOps(connection.closeAfterWrite
+                    ? SelectionKey.OP_WRITE
+                    : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else if (connection.closeAfterWrite) {
+            closeConnection(key);
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+        if (connection != null && connection.in != null) {
+            connection.in.clear();
+            bufferPool.push(connection.in);
+            connection.in = null;
+        }
+    }
+
+    private static class Connection {
+
+        private ByteBuffer in;
+        private final ByteBuffer out = ByteBuffer.allocate(ACK_BUFFER_SIZE);
+        private long accepted;
+        private long rejected;
+        private boolean skippingLongLine;
+        private boolean closeAfterWrite;
+
+        Connection(ByteBuffer in) {
+            this.in = in;
+            out.flip();
+        }
+
+        void count(PackageLineLoader.Result result) {
+            if (result == PackageLineLoader.Result.ACCEPTED) {
+                accepted++;
+            } else if (result == PackageLineLoader.Result.REJECTED) {
+                rejected++;
+            }
+        }
+    }
+}
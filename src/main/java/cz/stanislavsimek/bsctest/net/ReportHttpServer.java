@@ -0,0 +1,195 @@
+package cz.stanislavsimek.bsctest.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import cz.stanislavsimek.bsctest.report.ReportFormatter;
+import cz.stanislavsimek.bsctest.report.ReportSnapshot;
+import cz.stanislavsimek.bsctest.report.ReportWriter;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Serves the current report and totals of single postal codes over HTTP, as plain text in the
+ * same format as output:
+ * <ul>
+ * <li>GET /report - rows of all postal codes, one per line</li>
+ * <li>GET /postal-codes/[postal code] - row of the postal code, 404 if it has no package</li>
+ * </ul>
+ *
+ * The rendered report is cached per report snapshot (see {@link ReportSnapshot#getEpoch()}), so
+ * that concurrent requests without any change in between cost one rendering. The epoch is sent
+ * as ETag, a request with the same If-None-Match gets 304 without any body.
+ *
+ * Each request runs on its own virtual thread on Java 21 and later, on a pooled thread before.
+ */
+public class ReportHttpServer implements Closeable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Supplier<ReportSnapshot> reports;
+    private final PackageStore store;
+
+    private final Object renderLock = new Object();
+
+    private volatile RenderedReport renderedReport = new RenderedReport(-1, new byte[0]);
+
+    /**
+     * @param address Address to listen on, e.g. loopback address for local clients only.
+     * @param port Port to listen on, 0 for any free port.
+     * @param reports Publishes the current report snapshot.
+     * @param store Store of totals of postal codes, or null if postal codes can not be looked up.
+     */
+    public ReportHttpServer(InetAddress address, int port, Supplier<ReportSnapshot> reports, PackageStore store)
+            throws IOException {
+        this.reports = reports;
+        this.store = store;
+        this.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/report", this::handleReport);
+        server.createContext("/postal-codes/", this::handlePostalCode);
+    }
+
+    /**
+     * Virtual threads are created by reflection, so that the program runs on Java 17 as well.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "report-http-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    private void handleReport(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!isGet(exchange)) {
+                return;
+            }
+            if (!"/report".equals(exchange.getRequestURI().getPath())) {
+                send(exchange, 404, new byte[0]);
+                return;
+            }
+            ReportSnapshot snapshot = reports.get();
+            String etag = "\"" + snapshot.getEpoch() + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            send(exchange, 200, render(snapshot));
+        }
+    }
+
+    /**
+     * @return Rendered rows of the snapshot, rendered by one thread only per snapshot.
+     */
+    private byte[] render(ReportSnapshot snapshot) throws IOException {
+        RenderedReport rendered = renderedReport;
+        if (rendered.epoch == snapshot.getEpoch()) {
+            return rendered.body;
+        }
+        synchronized (renderLock) {
+            rendered = renderedReport;
+            if (rendered.epoch == snapshot.getEpoch()) {
+                return rendered.body;
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream(snapshot.size() * 24);
+            Writer writer = new OutputStreamWriter(body, StandardCharsets.US_ASCII);
+            ReportWriter.write(snapshot, writer);
+            writer.flush();
+            byte[] renderedBody = body.toByteArray();
+            if (snapshot.getEpoch() > rendered.epoch) {
+                renderedReport = new RenderedReport(snapshot.getEpoch(), renderedBody);
+            }
+            return renderedBody;
+        }
+    }
+
+    private void handlePostalCode(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!isGet(exchange)) {
+                return;
+            }
+            String postalCode = exchange.getRequestURI().getPath().substring("/postal-codes/".length());
+            if (!PostalCodes.isValid(postalCode)) {
+                send(exchange, 400, "Postal code of 5 digits expected\n".getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            if (store == null) {
+                send(exchange, 501, "Postal codes can not be looked up\n".getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            long[] totals = new long[3];
+            if (!store.readTotals(PostalCodes.toIndex(postalCode), totals)) {
+                send(exchange, 404, "none\n".getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            StringBuilder row = new StringBuilder();
+            ReportFormatter.appendRow(row, postalCode, totals[0], totals[1], !store.getFeeTable().isEmpty());
+            send(exchange, 200, row.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private static boolean isGet(HttpExchange exchange) throws IOException {
+        if ("GET".equals(exchange.getRequestMethod())) {
+            return true;
+        }
+        exchange.getResponseHeaders().set("Allow", "GET");
+        exchange.sendResponseHeaders(405, -1);
+        return false;
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=US-ASCII");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    /**
+     * Stops accepting requests and waits a second at most for requests being served.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    private static final class RenderedReport {
+
+        final long epoch;
+        final byte[] body;
+
+        RenderedReport(long epoch, byte[] body) {
+            this.epoch = epoch;
+            this.body = body;
+        }
+    }
+}
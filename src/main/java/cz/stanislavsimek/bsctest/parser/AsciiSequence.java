@@ -0,0 +1,60 @@
+package cz.stanislavsimek.bsctest.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable view of US-ASCII bytes (array or buffer) as characters, so that bytes can be parsed
+ * without decoding them into a String first.
+ */
+final class AsciiSequence implements CharSequence {
+
+    private byte[] array;
+    private ByteBuffer buffer;
+    private int from;
+    private int length;
+
+    AsciiSequence wrap(byte[] array, int from, int to) {
+        this.array = array;
+        this.buffer = null;
+        this.from = from;
+        this.length = to - from;
+        return this;
+    }
+
+    AsciiSequence wrap(ByteBuffer buffer, int from, int to) {
+        this.array = null;
+        this.buffer = buffer;
+        this.from = from;
+        this.length = to - from;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        byte b = array != null ? array[from + index] : buffer.get(from + index);
+        return (char) (b & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (array != null) {
+            return new String(array, from, length, StandardCharsets.US_ASCII);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
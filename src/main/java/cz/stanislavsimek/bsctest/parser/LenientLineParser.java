@@ -0,0 +1,107 @@
+package cz.stanislavsimek.bsctest.parser;
+
+import cz.stanislavsimek.bsctest.model.Fee;
+import cz.stanislavsimek.bsctest.model.Package;
+
+import java.util.List;
+
+import net.sf.oval.ConstraintViolation;
+import net.sf.oval.Validator;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Lines not accepted by {@link LineParser} are parsed as floats and validated by OVal, which
+ * either accepts them too (e.g. "1e3 08801") or prints the error.
+ */
+public final class LenientLineParser {
+
+    /**
+     * Shared by all threads, OVal validator is thread safe and caches constraints of each class.
+     * Lines accepted by {@link LineParser} are already checked and do not need it.
+     */
+    private static final Validator validator = new Validator();
+
+    private LenientLineParser() {
+    }
+
+    /**
+     * @return Valid package, or null if the line is invalid (error is printed).
+     */
+    public static Package parsePackageLine(String line) {
+        String[] inputParameters = line.split(" ");
+        if (inputParameters.length != 2) {
+            System.err.println(
+                    "ERROR: 2 input parameters expected per package line, get " + inputParameters.length + "."
+            );
+            return null;
+        }
+        double weightInKg;
+        try {
+            weightInKg = Double.valueOf(inputParameters[0]);
+        } catch (NumberFormatException e) {
+            System.err.println(
+                    "ERROR: First input parameter for package line should be float, is '" + inputParameters[0] + "'."
+            );
+            return null;
+        }
+        String postalCode = inputParameters[1];
+        Package _package = new Package(weightInKg, postalCode);
+        return isValid(_package) ? _package : null;
+    }
+
+    private static boolean isValid(Package _package) {
+        List<ConstraintViolation> violations = validator.validate(_package);
+        if (!violations.isEmpty()) {
+            System.err.println(
+                    "ERROR: Package " + _package + " is invalid: " + StringUtils.join(violations, ", ")
+            );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Valid fee, or null if the line is invalid (error is printed).
+     */
+    public static Fee parseFeeLine(String line) {
+        String[] inputParameters = line.split(" ");
+        if (inputParameters.length != 2) {
+            System.err.println(
+                    "ERROR: 2 input parameters expected per fee line, get " + inputParameters.length + "."
+            );
+            return null;
+        }
+        double weightInKg;
+        try {
+            weightInKg = Double.valueOf(inputParameters[0]);
+        } catch (NumberFormatException e) {
+            System.err.println(
+                    "ERROR: First input parameter for fee line should be float, is '" + inputParameters[0] + "'."
+            );
+            return null;
+        }
+        double feeValue;
+        try {
+            feeValue = Double.valueOf(inputParameters[1]);
+        } catch (NumberFormatException e) {
+            System.err.println(
+                    "ERROR: Second input parameter for fee line should be float, is '" + inputParameters[0] + "'."
+            );
+            return null;
+        }
+        Fee fee = new Fee(weightInKg, feeValue);
+        return isValid(fee) ? fee : null;
+    }
+
+    private static boolean isValid(Fee fee) {
+        List<ConstraintViolation> violations = validator.validate(fee);
+        if (!violations.isEmpty()) {
+            System.err.println(
+                    "ERROR: Fee " + fee + " is invalid: " + StringUtils.join(violations, ", ")
+            );
+            return false;
+        }
+        return true;
+    }
+}
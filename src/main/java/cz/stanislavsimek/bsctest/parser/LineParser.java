@@ -0,0 +1,181 @@
+package cz.stanislavsimek.bsctest.parser;
+
+import cz.stanislavsimek.bsctest.model.Fee;
+import cz.stanislavsimek.bsctest.model.Package;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parser of package and fee lines into fixed point numbers (grams, cents), which does not create
+ * any objects. It is not thread safe, every thread needs its own instance.
+ *
+ * Only the canonical form of the line is accepted, e.g. "12.56 08801" or "10 5.00", including
+ * all constraints of {@link Package} and {@link Fee}, e.g. maximal weight and fee. When a line is
+ * not accepted, it is not necessarily invalid (e.g. "1e3 08801"), the caller should parse it the
+ * usual way, which also reports the proper error.
+ */
+public final class LineParser {
+
+    /**
+     * Integral digits are limited, so that parsing can not overflow, the maximal weight and fee are
+     * checked after.
+     */
+    private static final int MAX_INTEGRAL_DIGITS = 12;
+
+    private static final int MAX_WEIGHT_FRACTION_DIGITS = 3;
+    private static final int MAX_FEE_FRACTION_DIGITS = 2;
+
+    private final AsciiSequence bytes = new AsciiSequence();
+
+    private int position;
+    private long weightInGrams;
+    private int postalCode;
+    private long feeInCents;
+
+    /**
+     * Package line format: [weight: positive number, >0, maximal 3 decimal places, . (dot) as
+     * decimal separator][space][postal code: fixed 5 digits]
+     *
+     * @return True if the line was parsed, see {@link #getWeightInGrams()} and
+     * {@link #getPostalCode()}.
+     */
+    public boolean parsePackageLine(CharSequence line) {
+        position = 0;
+        long weight = parseFixedPoint(line, MAX_WEIGHT_FRACTION_DIGITS);
+        if (weight <= 0 || weight > Package.MAX_WEIGHT_IN_GRAMS || !skipSpace(line)) {
+            return false;
+        }
+        int code = 0;
+        for (int i = 0; i < 5; i++) {
+            int digit = digitAt(line, position++);
+            if (digit < 0) {
+                return false;
+            }
+            code = code * 10 + digit;
+        }
+        if (position != line.length()) {
+            return false;
+        }
+        weightInGrams = weight;
+        postalCode = code;
+        return true;
+    }
+
+    /**
+     * @see #parsePackageLine(CharSequence)
+     */
+    public boolean parsePackageLine(byte[] buffer, int from, int to) {
+        return parsePackageLine(bytes.wrap(buffer, from, to));
+    }
+
+    /**
+     * @see #parsePackageLine(CharSequence)
+     */
+    public boolean parsePackageLine(ByteBuffer buffer, int from, int to) {
+        return parsePackageLine(bytes.wrap(buffer, from, to));
+    }
+
+    /**
+     * Fee line format: [weight: positive number, >0, maximal 3 decimal places, . (dot) as decimal
+     * separator][space][fee: positive number, >=0, fixed two decimals, . (dot) as decimal
+     * separator]
+     *
+     * @return True if the line was parsed, see {@link #getWeightInGrams()} and
+     * {@link #getFeeInCents()}.
+     */
+    public boolean parseFeeLine(CharSequence line) {
+        position = 0;
+        long weight = parseFixedPoint(line, MAX_WEIGHT_FRACTION_DIGITS);
+        if (weight <= 0 || weight > Package.MAX_WEIGHT_IN_GRAMS || !skipSpace(line)) {
+            return false;
+        }
+        long fee = parseFixedPoint(line, MAX_FEE_FRACTION_DIGITS);
+        if (fee < 0 || fee > Fee.MAX_FEE_IN_CENTS || position != line.length()) {
+            return false;
+        }
+        weightInGrams = weight;
+        feeInCents = fee;
+        return true;
+    }
+
+    /**
+     * @see #parseFeeLine(CharSequence)
+     */
+    public boolean parseFeeLine(byte[] buffer, int from, int to) {
+        return parseFeeLine(bytes.wrap(buffer, from, to));
+    }
+
+    /**
+     * @see #parseFeeLine(CharSequence)
+     */
+    public boolean parseFeeLine(ByteBuffer buffer, int from, int to) {
+        return parseFeeLine(bytes.wrap(buffer, from, to));
+    }
+
+    public long getWeightInGrams() {
+        return weightInGrams;
+    }
+
+    public int getPostalCode() {
+        return postalCode;
+    }
+
+    public long getFeeInCents() {
+        return feeInCents;
+    }
+
+    /**
+     * Parses [digits][.digits] at the current position.
+     *
+     * @return The number multiplied by 10^fractionDigits, or -1 if there is no such number.
+     */
+    private long parseFixedPoint(CharSequence line, int fractionDigits) {
+        long value = 0;
+        int integralDigits = 0;
+        int digit;
+        while ((digit = digitAt(line, position)) >= 0) {
+            if (++integralDigits > MAX_INTEGRAL_DIGITS) {
+                return -1;
+            }
+            value = value * 10 + digit;
+            position++;
+        }
+        if (integralDigits == 0) {
+            return -1;
+        }
+        int fraction = 0;
+        if (position < line.length() && line.charAt(position) == '.') {
+            position++;
+            while ((digit = digitAt(line, position)) >= 0) {
+                if (++fraction > fractionDigits) {
+                    return -1;
+                }
+                value = value * 10 + digit;
+                position++;
+            }
+            if (fraction == 0) {
+                return -1;
+            }
+        }
+        for (; fraction < fractionDigits; fraction++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    private boolean skipSpace(CharSequence line) {
+        if (position < line.length() && line.charAt(position) == ' ') {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private static int digitAt(CharSequence line, int index) {
+        if (index >= line.length()) {
+            return -1;
+        }
+        char c = line.charAt(index);
+        return c >= '0' && c <= '9' ? c - '0' : -1;
+    }
+}
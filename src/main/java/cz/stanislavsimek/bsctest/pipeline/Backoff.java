@@ -0,0 +1,34 @@
+package cz.stanislavsimek.bsctest.pipeline;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waiting of a stage for its ring buffer: spin a little, then yield, then park for growing
+ * time, so that an idle stage does not burn a core.
+ */
+final class Backoff {
+
+    private static final int SPINS = 64;
+    private static final int YIELDS = 16;
+    private static final long MIN_PARK_NANOS = 10_000;
+    private static final long MAX_PARK_NANOS = 1_000_000;
+
+    private Backoff() {
+    }
+
+    /**
+     * @param idleCount How many times the caller waited in a row, 0 for the first time.
+     * @return The next idle count.
+     */
+    static int idle(int idleCount) {
+        if (idleCount < SPINS) {
+            // Busy spin
+        } else if (idleCount < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            int parks = idleCount - SPINS - YIELDS;
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, MIN_PARK_NANOS << Math.min(parks, 10)));
+        }
+        return idleCount + 1;
+    }
+}
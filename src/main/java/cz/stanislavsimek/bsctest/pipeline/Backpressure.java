@@ -0,0 +1,17 @@
+package cz.stanislavsimek.bsctest.pipeline;
+
+/**
+ * What a stage does, when the ring buffer to the next stage is full.
+ */
+public enum Backpressure {
+
+    /**
+     * Wait until there is free space.
+     */
+    BLOCK,
+
+    /**
+     * Drop the item and count it as shed.
+     */
+    SHED
+}
@@ -0,0 +1,222 @@
+package cz.stanislavsimek.bsctest.pipeline;
+
+import cz.stanislavsimek.bsctest.io.PackageLineLoader;
+import cz.stanislavsimek.bsctest.metrics.Metrics;
+import cz.stanislavsimek.bsctest.store.PackageList;
+import cz.stanislavsimek.bsctest.store.PackageSink;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Processes user input in three stages, each in its own thread, connected by bounded single
+ * producer single consumer ring buffers:
+ *
+ * - reader reads lines from input,
+ *
+ * - parser parses and validates package lines (and prints errors), executes commands,
+ *
+ * - aggregator adds parsed packages (packed into longs) into the sink, in batches.
+ *
+ * So a slow stage, e.g. printing an error, does not stop reading. An error of one line or package
+ * is printed and the stage goes on with the next one. When a ring buffer is full, the
+ * stage before it waits or sheds, see {@link Backpressure}.
+ *
+ * When user enters "quit", reader stops and every line read before is still processed (see
+ * {@link #awaitDrained()}). End of input stops reading too, but it is not "quit".
+ */
+public class InputPipeline {
+
+    public interface CommandHandler {
+
+        /**
+         * Called by the parser stage after all packages before the command are aggregated.
+         *
+         * @return False if the line is not a command.
+         */
+        boolean execute(String line);
+    }
+
+    private static final int BATCH_SIZE = 1024;
+
+    private final InputStream input;
+    private final PackageSink sink;
+    private final CommandHandler commandHandler;
+    private final Backpressure backpressure;
+
+    private final SpscRingBuffer<String> lines;
+    private final SpscLongRingBuffer packages;
+
+    private final CountDownLatch quit = new CountDownLatch(1);
+    private final CountDownLatch drained = new CountDownLatch(1);
+
+    private final AtomicLong shedLines = new AtomicLong();
+    private final AtomicLong shedPackages = new AtomicLong();
+
+    /**
+     * Number of packages added into the sink by the aggregator.
+     */
+    private final AtomicLong aggregatedPackages = new AtomicLong();
+
+    public InputPipeline(InputStream input, PackageSink sink, CommandHandler commandHandler,
+            int capacity, Backpressure backpressure) {
+        this.input = input;
+        this.sink = sink;
+        this.commandHandler = commandHandler;
+        this.backpressure = backpressure;
+        this.lines = new SpscRingBuffer<>(capacity);
+        this.packages = new SpscLongRingBuffer(capacity);
+    }
+
+    public void start() {
+        startStage(this::read, "input-reader");
+        startStage(this::parse, "input-parser");
+        startStage(this::aggregate, "input-aggregator");
+    }
+
+    /**
+     * Waits until user enters "quit" (or input can not be read).
+     */
+    public void awaitQuit() throws InterruptedException {
+        quit.await();
+    }
+
+    /**
+     * Waits until all lines read are processed.
+     */
+    public void awaitDrained() throws InterruptedException {
+        drained.await();
+    }
+
+    public long getShedLines() {
+        return shedLines.get();
+    }
+
+    public long getShedPackages() {
+        return shedPackages.get();
+    }
+
+    /**
+     * @return Number of lines and packages waiting in ring buffers.
+     */
+    public int getBacklog() {
+        return lines.size() + packages.size();
+    }
+
+    private void read() {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+        try {
+            while (true) {
+                // Read user input from console, consisting of weight of package and destination postal code.
+                String inputLine;
+                try {
+                    inputLine = reader.readLine();
+                } catch (IOException ex) {
+                    System.err.println("ERROR: " + ex.getMessage());
+                    quit.countDown();
+                    break;
+                }
+                if (inputLine == null) {
+                    break;
+                }
+                // When user enters "quit" to command line as input, program exits.
+                if ("quit".equals(inputLine)) {
+                    quit.countDown();
+                    break;
+                }
+                if (!lines.put(inputLine, backpressure)) {
+                    shedLines.incrementAndGet();
+                }
+            }
+        } finally {
+            lines.close();
+        }
+    }
+
+    private void parse() {
+        long[] parsedPackages = {0};
+        PackageLineLoader lineLoader = new PackageLineLoader((postalCode, weightInGrams) -> {
+            if (packages.put(PackageList.pack(postalCode, weightInGrams), backpressure)) {
+                parsedPackages[0]++;
+            } else {
+                shedPackages.incrementAndGet();
+            }
+        });
+        String[] batch = new String[BATCH_SIZE];
+        try {
+            int count;
+            while ((count = lines.take(batch)) >= 0) {
+                for (int i = 0; i < count; i++) {
+                    String line = batch[i];
+                    batch[i] = null;
+                    if (StringUtils.isBlank(line)) {
+                        continue;
+                    }
+                    try {
+                        if (!Character.isDigit(line.charAt(0))) {
+                            awaitAggregated(parsedPackages[0]);
+                            if (commandHandler.execute(line)) {
+                                continue;
+                            }
+                        }
+                        lineLoader.load(line);
+                    } catch (RuntimeException e) {
+                        System.err.println("ERROR: Unable to process line '" + line + "' : " + e);
+                    }
+                }
+            }
+        } finally {
+            packages.close();
+        }
+    }
+
+    private void aggregate() {
+        long[] batch = new long[BATCH_SIZE];
+        try {
+            int count;
+            while ((count = packages.take(batch)) >= 0) {
+                long startNanos = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    int postalCode = PackageList.unpackPostalCode(batch[i]);
+                    long weightInGrams = PackageList.unpackWeightInGrams(batch[i]);
+                    try {
+                        sink.add(postalCode, weightInGrams);
+                    } catch (RuntimeException e) {
+                        PackageLineLoader.printRejected(postalCode, weightInGrams, e);
+                    }
+                }
+                try {
+                    sink.flush();
+                } catch (RuntimeException e) {
+                    System.err.println("ERROR: Unable to add packages : " + e);
+                }
+                Metrics.INGESTION_BATCH_LATENCY.recordSince(startNanos);
+                aggregatedPackages.lazySet(aggregatedPackages.get() + count);
+            }
+        } finally {
+            drained.countDown();
+        }
+    }
+
+    /**
+     * Commands see all packages entered before them.
+     */
+    private void awaitAggregated(long parsedPackages) {
+        int idleCount = 0;
+        while (aggregatedPackages.get() < parsedPackages) {
+            idleCount = Backoff.idle(idleCount);
+        }
+    }
+
+    private static void startStage(Runnable stage, String name) {
+        Thread thread = new Thread(stage, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,116 @@
+package cz.stanislavsimek.bsctest.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded ring buffer for exactly one producer thread and exactly one consumer thread. Neither
+ * side takes a lock, each one publishes its position by an ordered write and caches the position
+ * of the other side. The consumer takes items in batches.
+ *
+ * The producer closes the buffer after its last item, the consumer gets all items before it
+ * learns, that the buffer is closed.
+ */
+public final class SpscRingBuffer<E> {
+
+    private final Object[] slots;
+    private final int mask;
+
+    /**
+     * Position of the next item to be written, written by the producer only.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Position of the next item to be read, written by the consumer only.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    private long cachedHead;
+    private long cachedTail;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity Rounded up to a power of two.
+     */
+    public SpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return False if the buffer is full.
+     */
+    public boolean offer(E item) {
+        long position = tail.get();
+        if (position - cachedHead >= slots.length) {
+            cachedHead = head.get();
+            if (position - cachedHead >= slots.length) {
+                return false;
+            }
+        }
+        slots[(int) position & mask] = item;
+        tail.lazySet(position + 1);
+        return true;
+    }
+
+    /**
+     * @return False if the item was shed, because the buffer was full.
+     */
+    public boolean put(E item, Backpressure backpressure) {
+        int idleCount = 0;
+        while (!offer(item)) {
+            if (backpressure == Backpressure.SHED) {
+                return false;
+            }
+            idleCount = Backoff.idle(idleCount);
+        }
+        return true;
+    }
+
+    /**
+     * Waits for at least one item.
+     *
+     * @param batch Array to take items into.
+     * @return Number of items taken, or -1 if the buffer is closed and empty.
+     */
+    @SuppressWarnings("unchecked")
+    public int take(E[] batch) {
+        long position = head.get();
+        int idleCount = 0;
+        while (position == cachedTail) {
+            cachedTail = tail.get();
+            if (position == cachedTail) {
+                if (closed) {
+                    // The last items could be written just before closing
+                    cachedTail = tail.get();
+                    if (position == cachedTail) {
+                        return -1;
+                    }
+                    break;
+                }
+                idleCount = Backoff.idle(idleCount);
+            }
+        }
+        int count = (int) Math.min(batch.length, cachedTail - position);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (position + i) & mask;
+            batch[i] = (E) slots[slot];
+            slots[slot] = null;
+        }
+        head.lazySet(position + count);
+        return count;
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,62 @@
+package cz.stanislavsimek.bsctest.report;
+
+import cz.stanislavsimek.bsctest.store.ChangeTracker;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodes;
+import cz.stanislavsimek.bsctest.store.ReportOrder;
+
+import java.util.Arrays;
+
+/**
+ * Rows of postal codes changed since the previous delta, in report order. Cost depends on the
+ * number of changed postal codes, not on the number of all postal codes.
+ */
+public class DeltaReport {
+
+    private final PackageStore store;
+    private final ChangeTracker changeTracker;
+
+    private final long[] totalWeightInGrams = new long[PostalCodes.COUNT];
+    private final long[] totalFeeInCents = new long[PostalCodes.COUNT];
+    private final long[] sortKeys = new long[PostalCodes.COUNT];
+    private final long[] totals = new long[3];
+    private int size;
+
+    public DeltaReport(PackageStore store) {
+        this.store = store;
+        this.changeTracker = store.newChangeTracker();
+    }
+
+    /**
+     * Forgets changes so far, e.g. after a full report.
+     */
+    public synchronized void reset() {
+        changeTracker.drain(postalCode -> {
+        });
+    }
+
+    /**
+     * @return Rows changed since the previous call (or reset), empty if there is no change.
+     */
+    public synchronized String getOutput(boolean withFees) {
+        size = 0;
+        changeTracker.drain(this::readChange);
+        Arrays.sort(sortKeys, 0, size);
+        StringBuilder outputLines = new StringBuilder();
+        for (int i = size - 1; i >= 0; i--) {
+            int postalCode = ReportOrder.getPostalCode(sortKeys[i]);
+            ReportFormatter.appendRow(
+                    outputLines, postalCode, totalWeightInGrams[postalCode], totalFeeInCents[postalCode], withFees
+            );
+        }
+        return outputLines.toString().trim();
+    }
+
+    private void readChange(int postalCode) {
+        if (store.readTotals(postalCode, totals)) {
+            totalWeightInGrams[postalCode] = totals[0];
+            totalFeeInCents[postalCode] = totals[1];
+            sortKeys[size++] = ReportOrder.toSortKey(postalCode, totals[0]);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package cz.stanislavsimek.bsctest.report;
+
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.ReportOrder;
+
+import java.util.Arrays;
+
+/**
+ * Rows of regions (postal code prefixes), in the same format and order as rows of postal codes,
+ * read from region totals of the store without summing postal codes.
+ */
+public final class RegionReport {
+
+    private RegionReport() {
+    }
+
+    /**
+     * @param digits Number of digits of region prefixes, from 1 to 3.
+     * @return Rows of regions with at least one package, one per line.
+     */
+    public static String format(PackageStore store, int digits, boolean withFees) {
+        int regionCount = PackageStore.getRegionCount(digits);
+        long[] weights = new long[regionCount];
+        long[] fees = new long[regionCount];
+        long[] sortKeys = new long[regionCount];
+        long[] totals = new long[3];
+        int size = 0;
+        for (int prefix = 0; prefix < regionCount; prefix++) {
+            if (store.readRegionTotals(digits, prefix, totals)) {
+                weights[prefix] = totals[0];
+                fees[prefix] = totals[1];
+                sortKeys[size++] = ReportOrder.toSortKey(prefix, totals[0]);
+            }
+        }
+        Arrays.sort(sortKeys, 0, size);
+        StringBuilder outputLines = new StringBuilder();
+        String labelFormat = "%0" + digits + "d";
+        for (int i = size - 1; i >= 0; i--) {
+            int prefix = ReportOrder.getPostalCode(sortKeys[i]);
+            ReportFormatter.appendRow(
+                    outputLines, String.format(labelFormat, prefix), weights[prefix], fees[prefix], withFees
+            );
+        }
+        return outputLines.toString().trim();
+    }
+}
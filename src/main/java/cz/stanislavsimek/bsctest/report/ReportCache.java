@@ -0,0 +1,158 @@
+package cz.stanislavsimek.bsctest.report;
+
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodes;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Rendered report, memoized by the version of the store (see {@link PackageStore#getVersion()}).
+ * As long as no package is added and fees are not priced again, the same rendering is returned
+ * without publishing or rendering anything.
+ *
+ * Rows are rendered per postal code and kept along with the totals they were rendered from. After
+ * a change, only rows with changed totals are rendered again, the others are reused, so the cost
+ * of rendering depends on the number of changed postal codes. Memory is bounded by the number of
+ * postal codes.
+ *
+ * Rows can have the optional column of weight quantiles, read from the store as rows are rendered.
+ * Any new package changes the total weight, so the row is rendered again with new quantiles.
+ */
+public class ReportCache {
+
+    private final PackageStore store;
+    private final ReportIndex reportIndex;
+    private final boolean withWeightQuantiles;
+    private final long[] weightQuantilesInGrams = new long[ReportFormatter.WEIGHT_QUANTILES.length];
+
+    private final String[] rows = new String[PostalCodes.COUNT];
+    private final long[] rowWeightInGrams = new long[PostalCodes.COUNT];
+    private final long[] rowFeeInCents = new long[PostalCodes.COUNT];
+    private boolean rowsWithFees;
+
+    /**
+     * Snapshot, whose rows are rendered.
+     */
+    private ReportSnapshot snapshot = ReportSnapshot.EMPTY;
+
+    private volatile Rendered rendered = new Rendered(-1, null);
+
+    /**
+     * @param reportIndex Index of the store.
+     */
+    public ReportCache(PackageStore store, ReportIndex reportIndex) {
+        this(store, reportIndex, false);
+    }
+
+    /**
+     * @param withWeightQuantiles True adds the column of weight quantiles, the store must keep
+     * distributions of weights.
+     */
+    public ReportCache(PackageStore store, ReportIndex reportIndex, boolean withWeightQuantiles) {
+        this.store = store;
+        this.reportIndex = reportIndex;
+        this.withWeightQuantiles = withWeightQuantiles;
+    }
+
+    /**
+     * @return Rows of the report, one per line, the same String as long as nothing changes.
+     */
+    public String getOutput() {
+        Rendered current = rendered;
+        if (current.output != null && current.version == store.getVersion()) {
+            return current.output;
+        }
+        synchronized (this) {
+            ReportSnapshot renderedSnapshot = refresh();
+            current = rendered;
+            if (current.output == null) {
+                StringBuilder output = new StringBuilder(renderedSnapshot.size() * (rowsWithFees ? 24 : 16));
+                for (int row = 0; row < renderedSnapshot.size(); row++) {
+                    output.append(rows[renderedSnapshot.postalCodes[row]]);
+                }
+                output.setLength(Math.max(0, output.length() - System.lineSeparator().length()));
+                current = new Rendered(current.version, output.toString());
+                rendered = current;
+            }
+            return current.output;
+        }
+    }
+
+    /**
+     * Writes rows of the report, each followed by line separator, without building the whole
+     * report as one String. The writer is neither flushed nor closed.
+     *
+     * @return Number of written rows.
+     */
+    public synchronized int write(Writer writer) throws IOException {
+        ReportSnapshot renderedSnapshot = refresh();
+        for (int row = 0; row < renderedSnapshot.size(); row++) {
+            writer.write(rows[renderedSnapshot.postalCodes[row]]);
+        }
+        return renderedSnapshot.size();
+    }
+
+    /**
+     * Publishes the index, if the store changed, and renders rows with changed totals.
+     *
+     * @return Snapshot, whose rows are rendered.
+     */
+    private ReportSnapshot refresh() {
+        // Read before publishing, a change meanwhile is found again next time
+        long version = store.getVersion();
+        Rendered current = rendered;
+        if (current.version == version) {
+            return snapshot;
+        }
+        ReportSnapshot published = reportIndex.publish();
+        if (published.getEpoch() == snapshot.getEpoch()) {
+            rendered = new Rendered(version, current.output);
+            return snapshot;
+        }
+        boolean withFees = published.isWithFees();
+        boolean renderAll = withFees != rowsWithFees;
+        for (int row = 0; row < published.size(); row++) {
+            int postalCode = published.postalCodes[row];
+            long weightInGrams = published.totalWeightInGrams[row];
+            long feeInCents = published.totalFeeInCents[row];
+            if (renderAll || rows[postalCode] == null || rowWeightInGrams[postalCode] != weightInGrams
+                    || (withFees && rowFeeInCents[postalCode] != feeInCents)) {
+                StringBuilder renderedRow = new StringBuilder(withFees ? 32 : 24);
+                long[] weightQuantiles = null;
+                if (withWeightQuantiles) {
+                    store.readWeightQuantiles(postalCode, ReportFormatter.WEIGHT_QUANTILES, weightQuantilesInGrams);
+                    weightQuantiles = weightQuantilesInGrams;
+                }
+                ReportFormatter.appendRow(
+                        renderedRow, postalCode, weightInGrams, feeInCents, withFees, weightQuantiles
+                );
+                rows[postalCode] = renderedRow.toString();
+                rowWeightInGrams[postalCode] = weightInGrams;
+                rowFeeInCents[postalCode] = feeInCents;
+            }
+        }
+        rowsWithFees = withFees;
+        snapshot = published;
+        rendered = new Rendered(version, null);
+        return snapshot;
+    }
+
+    private static final class Rendered {
+
+        /**
+         * Version of the store, which the snapshot was published at (or later).
+         */
+        final long version;
+
+        /**
+         * Whole report, or null if not built yet.
+         */
+        final String output;
+
+        Rendered(long version, String output) {
+            this.version = version;
+            this.output = output;
+        }
+    }
+}
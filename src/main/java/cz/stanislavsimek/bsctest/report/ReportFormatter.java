@@ -0,0 +1,119 @@
+package cz.stanislavsimek.bsctest.report;
+
+import cz.stanislavsimek.bsctest.store.PostalCodes;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+/**
+ * Output line format: [postal code: fixed 5 digits][space][total weight: fixed 3 decimal places,
+ * . (dot) as decimal separator][space][total fee: fixed 2 decimal places, . (dot) as decimal
+ * separator]
+ */
+public final class ReportFormatter {
+
+    private ReportFormatter() {
+    }
+
+    /**
+     * Quantiles of package weights of the optional column, see
+     * {@link #appendWeightQuantiles(StringBuilder, long[])}.
+     */
+    public static final double[] WEIGHT_QUANTILES = {0.5, 0.95, 0.99};
+
+    private static final String[] WEIGHT_QUANTILE_LABELS = {" p50 ", " p95 ", " p99 "};
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /**
+     * @return Rows of the snapshot, one per line. See {@link ReportWriter} for large reports.
+     */
+    public static String format(ReportSnapshot snapshot) {
+        StringWriter output = new StringWriter();
+        try {
+            ReportWriter.write(snapshot, output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        StringBuffer outputLines = output.getBuffer();
+        outputLines.setLength(Math.max(0, outputLines.length() - LINE_SEPARATOR.length()));
+        return outputLines.toString();
+    }
+
+    /**
+     * Appends the row with line separator.
+     */
+    public static void appendRow(StringBuilder output, int postalCode, long totalWeightInGrams,
+            long totalFeeInCents, boolean withFees) {
+        appendRow(output, postalCode, totalWeightInGrams, totalFeeInCents, withFees, null);
+    }
+
+    /**
+     * Appends the row with line separator.
+     *
+     * @param weightQuantilesInGrams Weights at {@link #WEIGHT_QUANTILES} for the optional column,
+     * or null.
+     */
+    public static void appendRow(StringBuilder output, int postalCode, long totalWeightInGrams,
+            long totalFeeInCents, boolean withFees, long[] weightQuantilesInGrams) {
+        for (int divisor = PostalCodes.COUNT / 10; divisor > 0; divisor /= 10) {
+            output.append((char) ('0' + postalCode / divisor % 10));
+        }
+        appendTotals(output, totalWeightInGrams, totalFeeInCents, withFees, weightQuantilesInGrams);
+    }
+
+    /**
+     * Appends the row of a postal code or region with line separator.
+     */
+    public static void appendRow(StringBuilder output, String label, long totalWeightInGrams,
+            long totalFeeInCents, boolean withFees) {
+        output.append(label);
+        appendTotals(output, totalWeightInGrams, totalFeeInCents, withFees, null);
+    }
+
+    private static void appendTotals(StringBuilder output, long totalWeightInGrams, long totalFeeInCents,
+            boolean withFees, long[] weightQuantilesInGrams) {
+        output.append(' ');
+        appendFixed(output, totalWeightInGrams, 1000);
+        if (withFees) {
+            output.append(' ');
+            appendFixed(output, totalFeeInCents, 100);
+        }
+        if (weightQuantilesInGrams != null) {
+            appendWeightQuantiles(output, weightQuantilesInGrams);
+        }
+        output.append(LINE_SEPARATOR);
+    }
+
+    /**
+     * Appends weights at {@link #WEIGHT_QUANTILES} in kg, e.g. " p50 1.250 p95 4.000 p99 9.500".
+     */
+    public static void appendWeightQuantiles(StringBuilder output, long[] weightQuantilesInGrams) {
+        for (int i = 0; i < WEIGHT_QUANTILE_LABELS.length; i++) {
+            output.append(WEIGHT_QUANTILE_LABELS[i]);
+            appendFixed(output, weightQuantilesInGrams[i], 1000);
+        }
+    }
+
+    /**
+     * Appends the value with fixed number of decimal places, the same as
+     * {@code String.format("%.3f", BigDecimal.valueOf(value, 3))} with . (dot) as decimal
+     * separator, but without parsing a format.
+     *
+     * @param scale 10 to the power of the number of decimal places, e.g. 1000 for grams in kg.
+     */
+    static void appendFixed(StringBuilder output, long value, int scale) {
+        long integralPart = value / scale;
+        long fractionalPart = value % scale;
+        if (value < 0) {
+            output.append('-');
+            integralPart = -integralPart;
+            fractionalPart = -fractionalPart;
+        }
+        output.append(integralPart).append('.');
+        for (int divisor = scale / 10; divisor > 0; divisor /= 10) {
+            output.append((char) ('0' + fractionalPart / divisor % 10));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package cz.stanislavsimek.bsctest.report;
+
+import cz.stanislavsimek.bsctest.store.ChangeTracker;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodes;
+import cz.stanislavsimek.bsctest.store.ReportOrder;
+
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * Rows of the report kept in report order (see {@link ReportOrder}). On refresh, only postal codes
+ * changed since the previous refresh are read from the store and moved in the order, in O(log n)
+ * each. The report, or its first rows, is then an in-order walk without any sorting.
+ *
+ * Rows are copies taken on refresh, so values and order of a report always match.
+ *
+ * For rendering without holding the index (and while packages are being added), an immutable
+ * {@link ReportSnapshot} is published. A new snapshot is copied only if something changed since
+ * the previous one, otherwise the same one is returned.
+ */
+public class ReportIndex {
+
+    public interface RowConsumer {
+
+        void accept(int postalCode, long totalWeightInGrams, long totalFeeInCents, long packageCount);
+    }
+
+    private final PackageStore store;
+    private final ChangeTracker changeTracker;
+
+    private final long[] totalWeightInGrams = new long[PostalCodes.COUNT];
+    private final long[] totalFeeInCents = new long[PostalCodes.COUNT];
+    private final long[] packageCount = new long[PostalCodes.COUNT];
+
+    /**
+     * Sort keys of postal codes with at least one package.
+     */
+    private final TreeSet<Long> sortKeys = new TreeSet<>();
+
+    private final long[] totals = new long[3];
+
+    /**
+     * True if rows changed since the last snapshot.
+     */
+    private boolean changed = true;
+
+    private volatile ReportSnapshot snapshot = ReportSnapshot.EMPTY;
+
+    public ReportIndex(PackageStore store) {
+        this.store = store;
+        this.changeTracker = store.newChangeTracker();
+    }
+
+    /**
+     * Reads postal codes changed since the previous refresh.
+     */
+    public synchronized void refresh() {
+        changeTracker.drain(this::refresh);
+    }
+
+    private void refresh(int postalCode) {
+        if (!store.readTotals(postalCode, totals)) {
+            return;
+        }
+        changed = true;
+        if (totals[0] != totalWeightInGrams[postalCode] || packageCount[postalCode] == 0) {
+            if (packageCount[postalCode] > 0) {
+                sortKeys.remove(ReportOrder.toSortKey(postalCode, totalWeightInGrams[postalCode]));
+            }
+            sortKeys.add(ReportOrder.toSortKey(postalCode, totals[0]));
+        }
+        totalWeightInGrams[postalCode] = totals[0];
+        totalFeeInCents[postalCode] = totals[1];
+        packageCount[postalCode] = totals[2];
+    }
+
+    /**
+     * Refreshes the index and publishes its rows as a snapshot.
+     */
+    public synchronized ReportSnapshot publish() {
+        refresh();
+        boolean withFees = !store.getFeeTable().isEmpty();
+        if (changed || withFees != snapshot.isWithFees()) {
+            ReportSnapshot newSnapshot = new ReportSnapshot(snapshot.getEpoch() + 1, withFees, sortKeys.size());
+            int row = 0;
+            for (Iterator<Long> iterator = sortKeys.descendingIterator(); iterator.hasNext(); row++) {
+                int postalCode = ReportOrder.getPostalCode(iterator.next());
+                newSnapshot.postalCodes[row] = postalCode;
+                newSnapshot.totalWeightInGrams[row] = totalWeightInGrams[postalCode];
+                newSnapshot.totalFeeInCents[row] = totalFeeInCents[postalCode];
+                newSnapshot.packageCounts[row] = packageCount[postalCode];
+            }
+            snapshot = newSnapshot;
+            changed = false;
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return The last published snapshot, without waiting for the index.
+     */
+    public ReportSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Passes rows in report order, as of the last refresh.
+     *
+     * @param maxRows Maximal number of rows, e.g. for top N postal codes.
+     */
+    public synchronized void forEachRow(int maxRows, RowConsumer consumer) {
+        Iterator<Long> iterator = sortKeys.descendingIterator();
+        for (int row = 0; row < maxRows && iterator.hasNext(); row++) {
+            int postalCode = ReportOrder.getPostalCode(iterator.next());
+            consumer.accept(
+                    postalCode, totalWeightInGrams[postalCode], totalFeeInCents[postalCode], packageCount[postalCode]
+            );
+        }
+    }
+
+    public synchronized int size() {
+        return sortKeys.size();
+    }
+}
@@ -0,0 +1,102 @@
+package cz.stanislavsimek.bsctest.report;
+
+import java.util.Arrays;
+
+/**
+ * Immutable rows of the report in report order, published by {@link ReportIndex#publish()}. It can
+ * be rendered by any thread without any lock, while packages are being added.
+ */
+public final class ReportSnapshot {
+
+    static final ReportSnapshot EMPTY = new ReportSnapshot(0, false, 0);
+
+    private final long epoch;
+    private final boolean withFees;
+    private final int size;
+
+    final int[] postalCodes;
+    final long[] totalWeightInGrams;
+    final long[] totalFeeInCents;
+    final long[] packageCounts;
+
+    ReportSnapshot(long epoch, boolean withFees, int size) {
+        this.epoch = epoch;
+        this.withFees = withFees;
+        this.size = size;
+        this.postalCodes = new int[size];
+        this.totalWeightInGrams = new long[size];
+        this.totalFeeInCents = new long[size];
+        this.packageCounts = new long[size];
+    }
+
+    /**
+     * @return Number of the snapshot, a new one gets a higher number only if something changed.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return True if fees were loaded.
+     */
+    public boolean isWithFees() {
+        return withFees;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return True if both snapshots have the same rows and fees, regardless of their epochs.
+     */
+    public boolean hasSameRows(ReportSnapshot other) {
+        return withFees == other.withFees
+                && size == other.size
+                && Arrays.equals(postalCodes, other.postalCodes)
+                && Arrays.equals(totalWeightInGrams, other.totalWeightInGrams)
+                && Arrays.equals(totalFeeInCents, other.totalFeeInCents)
+                && Arrays.equals(packageCounts, other.packageCounts);
+    }
+
+    /**
+     * @param maxRows Maximal number of rows, e.g. for top N postal codes.
+     */
+    public void forEachRow(int maxRows, ReportIndex.RowConsumer consumer) {
+        for (int row = 0; row < Math.min(maxRows, size); row++) {
+            consumer.accept(postalCodes[row], totalWeightInGrams[row], totalFeeInCents[row], packageCounts[row]);
+        }
+    }
+
+    /**
+     * Builds a snapshot of rows given in report order, e.g. merged from shards.
+     */
+    public static final class Builder {
+
+        private final ReportSnapshot snapshot;
+        private int size;
+
+        /**
+         * @param size Number of rows.
+         */
+        public Builder(long epoch, boolean withFees, int size) {
+            this.snapshot = new ReportSnapshot(epoch, withFees, size);
+        }
+
+        public Builder addRow(int postalCode, long totalWeightInGrams, long totalFeeInCents, long packageCount) {
+            snapshot.postalCodes[size] = postalCode;
+            snapshot.totalWeightInGrams[size] = totalWeightInGrams;
+            snapshot.totalFeeInCents[size] = totalFeeInCents;
+            snapshot.packageCounts[size] = packageCount;
+            size++;
+            return this;
+        }
+
+        public ReportSnapshot build() {
+            if (size != snapshot.size()) {
+                throw new IllegalStateException(size + " rows added, " + snapshot.size() + " expected");
+            }
+            return snapshot;
+        }
+    }
+}
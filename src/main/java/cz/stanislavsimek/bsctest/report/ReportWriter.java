@@ -0,0 +1,63 @@
+package cz.stanislavsimek.bsctest.report;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Streams rows of a {@link ReportSnapshot} to a writer, in the format of {@link ReportFormatter},
+ * each row followed by line separator. The whole report is never built as one String.
+ *
+ * Rows are rendered in chunks by the common fork join pool, a few chunks ahead of the writer,
+ * while the calling thread writes rendered chunks in report order. So memory is bounded by the
+ * chunks in flight and not by the number of postal codes. Small reports are rendered by the
+ * calling thread only.
+ */
+public final class ReportWriter {
+
+    static final int CHUNK_ROWS = 4096;
+
+    private ReportWriter() {
+    }
+
+    /**
+     * Writes all rows of the snapshot. The writer is neither flushed nor closed.
+     */
+    public static void write(ReportSnapshot snapshot, Writer writer) throws IOException {
+        int chunks = (snapshot.size() + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        if (chunks <= 1) {
+            writer.write(render(snapshot, 0));
+            return;
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int chunksAhead = 2 * Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        Deque<ForkJoinTask<char[]>> renderedChunks = new ArrayDeque<>();
+        int nextChunk = 0;
+        while (nextChunk < chunks || !renderedChunks.isEmpty()) {
+            while (nextChunk < chunks && renderedChunks.size() < chunksAhead) {
+                int chunk = nextChunk++;
+                renderedChunks.add(pool.submit(() -> render(snapshot, chunk)));
+            }
+            writer.write(renderedChunks.poll().join());
+        }
+    }
+
+    private static char[] render(ReportSnapshot snapshot, int chunk) {
+        int fromRow = chunk * CHUNK_ROWS;
+        int toRow = Math.min(fromRow + CHUNK_ROWS, snapshot.size());
+        boolean withFees = snapshot.isWithFees();
+        StringBuilder output = new StringBuilder((toRow - fromRow) * (withFees ? 24 : 16));
+        for (int row = fromRow; row < toRow; row++) {
+            ReportFormatter.appendRow(
+                    output, snapshot.postalCodes[row], snapshot.totalWeightInGrams[row],
+                    snapshot.totalFeeInCents[row], withFees
+            );
+        }
+        char[] chars = new char[output.length()];
+        output.getChars(0, chars.length, chars, 0);
+        return chars;
+    }
+}
@@ -0,0 +1,391 @@
+package cz.stanislavsimek.bsctest.shard;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.report.ReportIndex;
+import cz.stanislavsimek.bsctest.report.ReportSnapshot;
+import cz.stanislavsimek.bsctest.store.PackageSink;
+import cz.stanislavsimek.bsctest.store.PostalCodes;
+import cz.stanislavsimek.bsctest.store.ReportOrder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs totals of packages in several local worker processes ({@link ShardWorker}), each owning
+ * the postal codes of one shard (see {@link ShardProtocol#shardOf(int, int)}), so that adding and
+ * pricing of packages is not limited by one JVM.
+ *
+ * Packages are routed to the owning shard in batches of {@link ShardProtocol#BATCH_PACKAGES}, a
+ * batch is sent when it is full or on {@link #flush()}. The report is collected from partial
+ * totals of all shards, which are merged into the same report order as of a single store. Any
+ * thread can add packages, totals are collected by one thread at a time.
+ *
+ * If a shard fails, does not reply with its totals within {@link #READ_TIMEOUT_MILLIS} or does not
+ * take frames within {@link #WRITE_TIMEOUT_MILLIS}, the error is printed and its packages are
+ * dropped from then on.
+ */
+public class ShardCoordinator implements PackageSink, Closeable {
+
+    private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Longest wait for any read from a shard, so that a hung worker does not block collecting.
+     */
+    static final long READ_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Longest wait for a frame to be queued for writing to a shard, so that a hung worker does not
+     * block adding or collecting.
+     */
+    static final long WRITE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Frames queued for writing to one shard.
+     */
+    private static final int WRITE_QUEUE_FRAMES = 16;
+
+    private final Shard[] shards;
+
+    private volatile FeeTable feeTable = FeeTable.EMPTY;
+
+    private long epoch;
+
+    /**
+     * Collected last time, returned again while totals do not change, so that its rendering can be
+     * reused.
+     */
+    private ReportSnapshot collected;
+
+    private ShardCoordinator(Shard[] shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Starts worker processes with the same Java and class path as this process and waits until
+     * they are connected.
+     *
+     * @param shardCount Number of worker processes.
+     * @param keepWeightCounts True if workers keep counts of packages per distinct weight, so that
+     * a new fee table can price their packages again.
+     */
+    public static ShardCoordinator start(int shardCount, boolean keepWeightCounts) throws IOException {
+        Shard[] shards = new Shard[shardCount];
+        Process[] processes = new Process[shardCount];
+        try (ServerSocket serverSocket = new ServerSocket(0, shardCount, InetAddress.getLoopbackAddress())) {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for (int shard = 0; shard < shardCount; shard++) {
+                processes[shard] = new ProcessBuilder(
+                        java, "-cp", System.getProperty("java.class.path"), ShardWorker.class.getName(),
+                        Integer.toString(serverSocket.getLocalPort()), Integer.toString(shard),
+                        Boolean.toString(keepWeightCounts)
+                ).redirectOutput(ProcessBuilder.Redirect.INHERIT).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            }
+            serverSocket.setSoTimeout((int) CONNECT_TIMEOUT_MILLIS);
+            for (int connected = 0; connected < shardCount; connected++) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout((int) READ_TIMEOUT_MILLIS);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                int shard = input.readInt();
+                if (shard < 0 || shard >= shardCount || shards[shard] != null) {
+                    socket.close();
+                    throw new IOException("Unexpected shard " + shard + " connected");
+                }
+                shards[shard] = new Shard(shard, processes[shard], socket, input);
+            }
+            return new ShardCoordinator(shards);
+        } catch (IOException e) {
+            for (int shard = 0; shard < shardCount; shard++) {
+                if (shards[shard] != null) {
+                    shards[shard].writer.interrupt();
+                    shards[shard].socket.close();
+                }
+                if (processes[shard] != null) {
+                    processes[shard].destroy();
+                }
+            }
+            if (e instanceof SocketTimeoutException) {
+                throw new IOException("Shards not connected in " + CONNECT_TIMEOUT_MILLIS + " ms", e);
+            }
+            throw e;
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public void add(int postalCode, long weightInGrams) {
+        shards[ShardProtocol.shardOf(postalCode, shards.length)].add(postalCode, weightInGrams);
+    }
+
+    /**
+     * Queues batches of all shards for sending.
+     */
+    @Override
+    public void flush() {
+        for (Shard shard : shards) {
+            shard.flush();
+        }
+    }
+
+    public FeeTable getFeeTable() {
+        return feeTable;
+    }
+
+    /**
+     * Sends the fee table to all shards, which price their packages again.
+     */
+    public synchronized void setFeeTable(FeeTable feeTable) {
+        this.feeTable = feeTable;
+        for (Shard shard : shards) {
+            shard.sendFeeTable(feeTable);
+        }
+    }
+
+    /**
+     * Collects partial totals of all shards (requested from all shards at once) and merges them
+     * into one report. Packages added before are included. The report gets a new epoch only if
+     * it differs from the previous one, otherwise the previous report is returned.
+     */
+    public synchronized ReportSnapshot collect() {
+        for (Shard shard : shards) {
+            shard.requestTotals();
+        }
+        long[] weights = new long[PostalCodes.COUNT];
+        long[] fees = new long[PostalCodes.COUNT];
+        long[] counts = new long[PostalCodes.COUNT];
+        long[] sortKeys = new long[PostalCodes.COUNT];
+        for (Shard shard : shards) {
+            shard.readTotals((postalCode, totalWeightInGrams, totalFeeInCents, packageCount) -> {
+                weights[postalCode] += totalWeightInGrams;
+                fees[postalCode] += totalFeeInCents;
+                counts[postalCode] += packageCount;
+            });
+        }
+        int rows = 0;
+        for (int postalCode = 0; postalCode < PostalCodes.COUNT; postalCode++) {
+            if (counts[postalCode] > 0) {
+                sortKeys[rows++] = ReportOrder.toSortKey(postalCode, weights[postalCode]);
+            }
+        }
+        Arrays.sort(sortKeys, 0, rows);
+        ReportSnapshot.Builder snapshot = new ReportSnapshot.Builder(epoch + 1, !feeTable.isEmpty(), rows);
+        for (int i = rows - 1; i >= 0; i--) {
+            int postalCode = ReportOrder.getPostalCode(sortKeys[i]);
+            snapshot.addRow(postalCode, weights[postalCode], fees[postalCode], counts[postalCode]);
+        }
+        ReportSnapshot merged = snapshot.build();
+        if (collected == null || !merged.hasSameRows(collected)) {
+            epoch++;
+            collected = merged;
+        }
+        return collected;
+    }
+
+    /**
+     * Sends pending batches, makes all workers exit and waits for them.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Shard shard : shards) {
+            shard.quit();
+        }
+        try {
+            for (Shard shard : shards) {
+                if (!shard.process.waitFor(10, TimeUnit.SECONDS)) {
+                    shard.process.destroy();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Connection to one worker. Threads append packages to the batch under the monitor of the
+     * shard and hand complete frames to a bounded queue, a writer thread sends them to the worker,
+     * so that nobody holds the monitor during a socket write. A frame not queued within
+     * {@link #WRITE_TIMEOUT_MILLIS} (the writer is stuck on a hung worker) fails the shard.
+     */
+    private static final class Shard {
+
+        /**
+         * Ends the writer after the frames queued before it.
+         */
+        private static final byte[] END = new byte[0];
+
+        private final int index;
+        private final Process process;
+        private final Socket socket;
+        private final DataInputStream input;
+        private final DataOutputStream output;
+
+        private final BlockingQueue<byte[]> frames = new ArrayBlockingQueue<>(WRITE_QUEUE_FRAMES);
+        private final Thread writer;
+
+        private final ByteBuffer batch = ByteBuffer.allocate(
+                ShardProtocol.FRAME_HEADER_SIZE + ShardProtocol.BATCH_PACKAGES * ShardProtocol.PACKAGE_SIZE
+        );
+        private int batchSize;
+
+        /**
+         * Read without the monitor by the collecting thread and by the writer.
+         */
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        Shard(int index, Process process, Socket socket, DataInputStream input) throws IOException {
+            this.index = index;
+            this.process = process;
+            this.socket = socket;
+            this.input = input;
+            this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            batch.position(ShardProtocol.FRAME_HEADER_SIZE);
+            this.writer = new Thread(this::writeFrames, "shard-writer-" + index);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        synchronized void add(int postalCode, long weightInGrams) {
+            batch.putInt(postalCode).putLong(weightInGrams);
+            if (++batchSize == ShardProtocol.BATCH_PACKAGES) {
+                queueBatch();
+            }
+        }
+
+        synchronized void flush() {
+            queueBatch();
+        }
+
+        synchronized void sendFeeTable(FeeTable feeTable) {
+            queueBatch();
+            ByteBuffer frame = ByteBuffer.allocate(ShardProtocol.FRAME_HEADER_SIZE + feeTable.size() * 16);
+            frame.put(ShardProtocol.FEE_TABLE).putInt(feeTable.size());
+            for (int tier = 0; tier < feeTable.size(); tier++) {
+                frame.putLong(feeTable.getThresholdInGrams(tier)).putLong(feeTable.getFeeInCentsOfTier(tier));
+            }
+            queue(frame.array());
+        }
+
+        synchronized void requestTotals() {
+            queueBatch();
+            queue(ByteBuffer.allocate(ShardProtocol.FRAME_HEADER_SIZE).put(ShardProtocol.TOTALS).putInt(0).array());
+        }
+
+        /**
+         * Reads the reply to {@link #requestTotals()}, only one thread reads. It does not wait for
+         * the monitor, the writer keeps sending meanwhile. A timeout fails the shard, the rest of
+         * the reply would not be read in order anyway.
+         */
+        void readTotals(ReportIndex.RowConsumer consumer) {
+            if (failed.get()) {
+                return;
+            }
+            try {
+                int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    int postalCode = input.readInt();
+                    if (postalCode < 0 || postalCode >= PostalCodes.COUNT) {
+                        throw new IOException("Postal code " + postalCode + " out of range");
+                    }
+                    consumer.accept(postalCode, input.readLong(), input.readLong(), input.readLong());
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Queues pending packages and the quit frame, the writer closes the socket after them.
+         */
+        synchronized void quit() {
+            queueBatch();
+            queue(ByteBuffer.allocate(ShardProtocol.FRAME_HEADER_SIZE).put(ShardProtocol.QUIT).putInt(0).array());
+            queue(END);
+        }
+
+        private void queueBatch() {
+            if (batchSize == 0) {
+                return;
+            }
+            batch.putInt(1, batchSize).put(0, ShardProtocol.PACKAGES);
+            queue(Arrays.copyOf(batch.array(), batch.position()));
+            batch.clear().position(ShardProtocol.FRAME_HEADER_SIZE);
+            batchSize = 0;
+        }
+
+        private void queue(byte[] frame) {
+            if (failed.get()) {
+                return;
+            }
+            try {
+                if (!frames.offer(frame, WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    fail(new IOException("Frames not written in " + WRITE_TIMEOUT_MILLIS + " ms"));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(new IOException("Interrupted while queueing a frame", e));
+            }
+        }
+
+        /**
+         * Writes queued frames, flushes whenever the queue gets empty.
+         */
+        private void writeFrames() {
+            try {
+                byte[] frame;
+                while ((frame = frames.take()) != END) {
+                    output.write(frame);
+                    if (frames.isEmpty()) {
+                        output.flush();
+                    }
+                }
+                output.flush();
+            } catch (IOException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                // Failed, or not started at all
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        /**
+         * Closes the socket, so that a write blocked on a hung worker fails too and the writer
+         * ends.
+         */
+        private void fail(IOException e) {
+            if (failed.compareAndSet(false, true)) {
+                System.err.println("ERROR: Shard " + index + " failed, its packages are dropped : " + e.getMessage());
+                frames.clear();
+                writer.interrupt();
+                try {
+                    socket.close();
+                } catch (IOException closeException) {
+                    // Failed already
+                }
+            }
+        }
+    }
+}
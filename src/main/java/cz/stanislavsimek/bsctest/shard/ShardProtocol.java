@@ -0,0 +1,46 @@
+package cz.stanislavsimek.bsctest.shard;
+
+/**
+ * Binary protocol between {@link ShardCoordinator} and {@link ShardWorker} over a local socket.
+ *
+ * A worker connects to the coordinator and sends [shard index: int]. Then the coordinator sends
+ * frames (big endian) [type: byte][count: int][entries], where entries are by type:
+ * <ul>
+ * <li>{@link #PACKAGES} - [postal code: int][weight in grams: long], no reply</li>
+ * <li>{@link #FEE_TABLE} - [threshold in grams: long][fee in cents: long], no reply</li>
+ * <li>{@link #TOTALS} - none, the worker replies [count: int] and [postal code: int][total weight
+ * in grams: long][total fee in cents: long][package count: long] for its postal codes with at
+ * least one package</li>
+ * <li>{@link #QUIT} - none, the worker exits</li>
+ * </ul>
+ * Frames are processed in order, so totals include all packages sent before.
+ */
+final class ShardProtocol {
+
+    static final byte PACKAGES = 'P';
+    static final byte FEE_TABLE = 'F';
+    static final byte TOTALS = 'T';
+    static final byte QUIT = 'Q';
+
+    static final int FRAME_HEADER_SIZE = 1 + 4;
+
+    static final int PACKAGE_SIZE = 12;
+
+    /**
+     * Maximal number of packages in one frame.
+     */
+    static final int BATCH_PACKAGES = 4096;
+
+    private ShardProtocol() {
+    }
+
+    /**
+     * Postal codes are spread over shards like over lock stripes of the store, so that shards of
+     * postal codes close to each other (e.g. of one region) share the load.
+     *
+     * @return Index of the shard owning the postal code.
+     */
+    static int shardOf(int postalCode, int shards) {
+        return postalCode % shards;
+    }
+}
@@ -0,0 +1,109 @@
+package cz.stanislavsimek.bsctest.shard;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.io.PackageLineLoader;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodeTotal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * Process keeping totals of the postal codes of one shard, started by {@link ShardCoordinator}.
+ * Packages and fees are received over {@link ShardProtocol}, fees are priced by the worker, so
+ * that a new fee table prices packages of all shards in parallel. The worker exits when the
+ * coordinator quits or disappears.
+ */
+public final class ShardWorker {
+
+    private final PackageStore store;
+
+    ShardWorker(boolean keepWeightCounts) {
+        this.store = new PackageStore(false, keepWeightCounts);
+    }
+
+    /**
+     * @param args Port of the coordinator on loopback address, index of the shard and whether
+     * counts of packages per distinct weight are kept, see {@link PackageStore#PackageStore(boolean, boolean)}.
+     */
+    public static void main(String[] args) {
+        int port = Integer.parseInt(args[0]);
+        int shard = Integer.parseInt(args[1]);
+        boolean keepWeightCounts = Boolean.parseBoolean(args[2]);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            output.writeInt(shard);
+            output.flush();
+            new ShardWorker(keepWeightCounts).serve(input, output);
+        } catch (IOException e) {
+            System.err.println("ERROR: Shard " + shard + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Processes frames until {@link ShardProtocol#QUIT} or end of input.
+     */
+    void serve(DataInputStream input, DataOutputStream output) throws IOException {
+        while (true) {
+            byte type;
+            try {
+                type = input.readByte();
+            } catch (EOFException e) {
+                return;
+            }
+            int count = input.readInt();
+            switch (type) {
+                case ShardProtocol.PACKAGES:
+                    for (int i = 0; i < count; i++) {
+                        int postalCode = input.readInt();
+                        long weightInGrams = input.readLong();
+                        try {
+                            store.add(postalCode, weightInGrams);
+                        } catch (IllegalArgumentException e) {
+                            PackageLineLoader.printRejected(postalCode, weightInGrams, e);
+                        }
+                    }
+                    break;
+                case ShardProtocol.FEE_TABLE:
+                    FeeTable.Builder feeTable = new FeeTable.Builder();
+                    for (int i = 0; i < count; i++) {
+                        feeTable.put(input.readLong(), input.readLong());
+                    }
+                    try {
+                        store.setFeeTable(feeTable.build());
+                    } catch (IllegalArgumentException | IllegalStateException e) {
+                        System.err.println("ERROR: Fees are rejected by shard : " + e.getMessage());
+                    }
+                    break;
+                case ShardProtocol.TOTALS:
+                    writeTotals(output);
+                    break;
+                case ShardProtocol.QUIT:
+                    return;
+                default:
+                    throw new IOException("Unknown frame type " + type);
+            }
+        }
+    }
+
+    private void writeTotals(DataOutputStream output) throws IOException {
+        List<PostalCodeTotal> totals = store.getTotals();
+        output.writeInt(totals.size());
+        for (PostalCodeTotal total : totals) {
+            output.writeInt(total.getPostalCodeIndex());
+            output.writeLong(total.getTotalWeightInGrams());
+            output.writeLong(total.getTotalFeeInCents());
+            output.writeLong(total.getPackageCount());
+        }
+        output.flush();
+    }
+}
@@ -0,0 +1,52 @@
+package cz.stanislavsimek.bsctest.store;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Set of postal codes changed since the last drain, one bit per postal code. Marking is lock free
+ * and does nothing if the bit is already set, draining costs the number of changed postal codes
+ * plus a scan of 1563 words.
+ */
+public final class ChangeTracker {
+
+    public interface PostalCodeConsumer {
+
+        void accept(int postalCode);
+    }
+
+    private final AtomicLongArray words = new AtomicLongArray((PostalCodes.COUNT + 63) / 64);
+
+    void mark(int postalCode) {
+        int word = postalCode >>> 6;
+        long bit = 1L << postalCode;
+        if ((words.get(word) & bit) == 0) {
+            words.accumulateAndGet(word, bit, (current, added) -> current | added);
+        }
+    }
+
+    void markAll() {
+        for (int word = 0; word < words.length(); word++) {
+            words.set(word, -1L);
+        }
+    }
+
+    /**
+     * Passes every changed postal code (in ascending order) to the consumer and forgets it. A
+     * postal code marked again meanwhile is passed now or by the next drain.
+     */
+    public void drain(PostalCodeConsumer consumer) {
+        for (int word = 0; word < words.length(); word++) {
+            if (words.get(word) == 0) {
+                continue;
+            }
+            long bits = words.getAndSet(word, 0);
+            while (bits != 0) {
+                int postalCode = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (postalCode < PostalCodes.COUNT) {
+                    consumer.accept(postalCode);
+                }
+            }
+        }
+    }
+}
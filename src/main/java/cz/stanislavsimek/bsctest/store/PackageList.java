@@ -0,0 +1,78 @@
+package cz.stanislavsimek.bsctest.store;
+
+import java.util.Arrays;
+
+/**
+ * Append only list of accepted packages, each one packed into a single long (weight in grams and
+ * postal code), so that millions of packages do not mean millions of objects.
+ */
+public class PackageList {
+
+    private static final int POSTAL_CODE_BITS = 17;
+    private static final long POSTAL_CODE_MASK = (1L << POSTAL_CODE_BITS) - 1;
+
+    private long[] packages = new long[1024];
+    private int size;
+
+    public void add(int postalCode, long weightInGrams) {
+        if (size == packages.length) {
+            packages = Arrays.copyOf(packages, size * 2);
+        }
+        packages[size++] = pack(postalCode, weightInGrams);
+    }
+
+    public void addAll(PackageList other) {
+        if (size + other.size > packages.length) {
+            packages = Arrays.copyOf(packages, Math.max(size + other.size, size * 2));
+        }
+        System.arraycopy(other.packages, 0, packages, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Adds packages packed by {@link #pack(int, long)}.
+     */
+    void addAll(long[] packed) {
+        if (size + packed.length > packages.length) {
+            packages = Arrays.copyOf(packages, Math.max(size + packed.length, size * 2));
+        }
+        System.arraycopy(packed, 0, packages, size, packed.length);
+        size += packed.length;
+    }
+
+    /**
+     * @return Packages packed by {@link #pack(int, long)}.
+     */
+    long[] toPackedArray() {
+        return Arrays.copyOf(packages, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getPostalCode(int i) {
+        return unpackPostalCode(packages[i]);
+    }
+
+    public long getWeightInGrams(int i) {
+        return unpackWeightInGrams(packages[i]);
+    }
+
+    /**
+     * @return Package packed into a single long, non negative.
+     * @throws IllegalArgumentException If the weight is out of range, so that it would not fit.
+     */
+    public static long pack(int postalCode, long weightInGrams) {
+        PackageStore.checkWeight(weightInGrams);
+        return (weightInGrams << POSTAL_CODE_BITS) | postalCode;
+    }
+
+    public static int unpackPostalCode(long _package) {
+        return (int) (_package & POSTAL_CODE_MASK);
+    }
+
+    public static long unpackWeightInGrams(long _package) {
+        return _package >>> POSTAL_CODE_BITS;
+    }
+}
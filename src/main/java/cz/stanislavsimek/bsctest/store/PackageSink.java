@@ -0,0 +1,22 @@
+package cz.stanislavsimek.bsctest.store;
+
+/**
+ * Receiver of accepted packages.
+ */
+public interface PackageSink {
+
+    /**
+     * @param postalCode Postal code index, see {@link PostalCodes}.
+     * @param weightInGrams Weight of the package.
+     * @throws IllegalArgumentException If the package is rejected, e.g. totals of the postal code
+     * would exceed their maximum. Sinks which keep packages aside report it themselves.
+     */
+    void add(int postalCode, long weightInGrams);
+
+    /**
+     * Called after a batch of packages. Sinks which keep packages aside (e.g. until they are
+     * journaled) pass them on here at latest.
+     */
+    default void flush() {
+    }
+}
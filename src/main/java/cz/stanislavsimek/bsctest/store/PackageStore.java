@@ -0,0 +1,780 @@
+package cz.stanislavsimek.bsctest.store;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.model.Package;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps running totals per postal code, updated as each package is accepted, so that the cost of
+ * a report depends on the number of postal codes and not on the number of packages.
+ *
+ * Postal code is used directly as an index to dense arrays of weights in grams, fees in cents and
+ * package counts, there are no objects per postal code or per package.
+ *
+ * Packages are priced by the current fee table when they are added. When the fee table is
+ * replaced, totals of fees are priced again from the counts of packages per distinct weight (see
+ * {@link WeightCounts}), so they have to be kept for it. Kept packages are never scanned again.
+ *
+ * Nothing per package or per distinct weight is kept unless requested: accepted packages (see
+ * {@link #PackageStore(boolean)}) and counts of packages per distinct weight (see
+ * {@link #PackageStore(boolean, boolean)}, implied by kept packages). Totals of recent time windows are kept only if
+ * requested too, see {@link WindowedTotals}, and so are distributions of weights per postal code,
+ * see {@link WeightSketch}.
+ * Totals of regions (postal code prefixes) are kept always, see {@link PrefixRollups}, and so are
+ * totals of ranges of postal codes, see {@link RangeSums}.
+ *
+ * Postal codes are split into stripes, each guarded by its own lock, so that packages for
+ * different postal codes can be added by many threads at once, and a report blocks only one
+ * stripe at a time. Consistency guarantee of {@link #getTotals()}: every returned postal code
+ * total is consistent (weight, fee and count of the same packages), and every package belongs to
+ * exactly one report epoch - the first report, which copies its stripe after the package was
+ * added. A package added before the report started is always included, a package added while
+ * the report is running is included in this or in the next report. Totals of different postal
+ * codes in one report may be copied at slightly different moments.
+ *
+ * Total weight and total fee of a postal code are at most {@link #MAX_TOTAL}, a package or fee
+ * table, which would exceed it, is rejected with {@link IllegalArgumentException} and nothing is
+ * changed.
+ */
+public class PackageStore implements PackageSink {
+
+    /**
+     * Maximal total weight in grams and total fee in cents of one postal code, so that totals of
+     * all postal codes together (see {@link RangeSums}) and sort keys (see {@link ReportOrder})
+     * can not overflow.
+     */
+    public static final long MAX_TOTAL = Long.MAX_VALUE / PostalCodes.COUNT;
+
+    /**
+     * Number of lock stripes, power of two.
+     */
+    static final int STRIPES = 64;
+
+    private static final int VERSION_PADDING = 8;
+
+    private final long[] totalWeightInGrams = new long[PostalCodes.COUNT];
+    private final long[] totalFeeInCents = new long[PostalCodes.COUNT];
+    private final long[] packageCount = new long[PostalCodes.COUNT];
+
+    /**
+     * Counts of packages per distinct weight, created with the first package, or null if not kept.
+     */
+    private final WeightCounts[] weightCounts;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    /**
+     * Number of changes per stripe, written under the stripe lock, see {@link #getVersion()}.
+     * Stripes are {@link #VERSION_PADDING} longs apart, so that they do not share cache lines.
+     */
+    private final AtomicLongArray stripeVersions = new AtomicLongArray(STRIPES * VERSION_PADDING);
+
+    /**
+     * Written under all stripe locks, so that packages are priced by one table while any stripe
+     * lock is held. Volatile for readers without a lock.
+     */
+    private volatile FeeTable feeTable = FeeTable.EMPTY;
+
+    /**
+     * Accepted packages, only if keeping of packages is enabled. Appended under the stripe lock of
+     * the package (and the monitor of the list), so that kept packages always match the totals.
+     */
+    private final PackageList packages;
+
+    private final List<ChangeTracker> changeTrackers = new CopyOnWriteArrayList<>();
+
+    private final PrefixRollups prefixRollups = new PrefixRollups();
+
+    private final RangeSums rangeSums = new RangeSums();
+
+    /**
+     * Totals of recent time slots, or null.
+     */
+    private final WindowedTotals windowedTotals;
+
+    /**
+     * Distributions of weights per postal code, created with the first package, or null if not
+     * kept.
+     */
+    private final WeightSketch[] weightSketches;
+
+    private final LongSupplier clock;
+
+    public PackageStore(boolean keepPackages) {
+        this(keepPackages, false);
+    }
+
+    /**
+     * @param keepWeightCounts True keeps counts of packages per distinct weight of each postal
+     * code, so that fees can be priced again. Memory grows with the number of distinct weights.
+     * They are kept also if packages are kept.
+     */
+    public PackageStore(boolean keepPackages, boolean keepWeightCounts) {
+        this(keepPackages, keepWeightCounts, 0, 0, false);
+    }
+
+    /**
+     * @param windowSlots Number of time slots of windowed totals, 0 for none. Each slot takes 2.4 MB.
+     * @param windowSlotMillis Length of a slot.
+     * @param keepWeightSketches True keeps distributions of weights for quantiles, at most 4 kB per
+     * postal code.
+     */
+    public PackageStore(boolean keepPackages, boolean keepWeightCounts, int windowSlots, long windowSlotMillis,
+            boolean keepWeightSketches) {
+        this(keepPackages, keepWeightCounts, windowSlots, windowSlotMillis, keepWeightSketches, System::currentTimeMillis);
+    }
+
+    PackageStore(boolean keepPackages, int windowSlots, long windowSlotMillis, LongSupplier clock) {
+        this(keepPackages, false, windowSlots, windowSlotMillis, false, clock);
+    }
+
+    private PackageStore(boolean keepPackages, boolean keepWeightCounts, int windowSlots, long windowSlotMillis,
+            boolean keepWeightSketches, LongSupplier clock) {
+        this.packages = keepPackages ? new PackageList() : null;
+        this.weightCounts = keepWeightCounts || keepPackages ? new WeightCounts[PostalCodes.COUNT] : null;
+        this.weightSketches = keepWeightSketches ? new WeightSketch[PostalCodes.COUNT] : null;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            locks[stripe] = new ReentrantLock();
+        }
+        this.clock = clock;
+        this.windowedTotals = windowSlots > 0
+                ? new WindowedTotals(windowSlots, windowSlotMillis, clock.getAsLong())
+                : null;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the weight is out of range or totals of the postal code
+     * would exceed {@link #MAX_TOTAL}.
+     */
+    @Override
+    public void add(int postalCode, long weightInGrams) {
+        add(postalCode, weightInGrams, true);
+    }
+
+    /**
+     * Like {@link #add(int, long)}, but the package is not recent, so it is not added to windowed
+     * totals, e.g. a package replayed from the journal after restart. Packages restored from a
+     * snapshot are not in windowed totals either, see {@link #addAll(PackageStore)}.
+     *
+     * @throws IllegalArgumentException If the weight is out of range or totals of the postal code
+     * would exceed {@link #MAX_TOTAL}.
+     */
+    public void addPast(int postalCode, long weightInGrams) {
+        add(postalCode, weightInGrams, false);
+    }
+
+    private void add(int postalCode, long weightInGrams, boolean recent) {
+        checkWeight(weightInGrams);
+        ReentrantLock lock = locks[stripe(postalCode)];
+        lock.lock();
+        try {
+            long feeInCents = feeTable.getFeeInCents(weightInGrams);
+            checkTotals(
+                    postalCode, totalWeightInGrams[postalCode] + weightInGrams, totalFeeInCents[postalCode] + feeInCents
+            );
+            totalWeightInGrams[postalCode] += weightInGrams;
+            totalFeeInCents[postalCode] += feeInCents;
+            packageCount[postalCode]++;
+            if (weightCounts != null) {
+                getWeightCounts(postalCode).add(weightInGrams, 1);
+            }
+            prefixRollups.add(postalCode, weightInGrams, feeInCents, 1);
+            rangeSums.add(postalCode, weightInGrams, feeInCents, 1);
+            if (windowedTotals != null && recent) {
+                windowedTotals.add(postalCode, weightInGrams, feeInCents);
+            }
+            if (weightSketches != null) {
+                getWeightSketch(postalCode).add(weightInGrams, 1);
+            }
+            if (packages != null) {
+                synchronized (packages) {
+                    packages.add(postalCode, weightInGrams);
+                }
+            }
+            for (ChangeTracker changeTracker : changeTrackers) {
+                changeTracker.mark(postalCode);
+            }
+            incrementVersion(stripe(postalCode));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds totals (and kept packages, weights and their distributions) of the other store, e.g.
+     * partial totals loaded in parallel. Both stores must have the same fee table, the other store
+     * must keep at least what this store keeps and it must not be changed meanwhile. Windowed
+     * totals are not added, packages of the other store are not recent.
+     *
+     * @throws IllegalArgumentException If totals of a postal code would exceed {@link #MAX_TOTAL},
+     * nothing is added then.
+     */
+    public void addAll(PackageStore other) {
+        if ((packages != null && other.packages == null) || (weightCounts != null && other.weightCounts == null)
+                || (weightSketches != null && other.weightSketches == null)) {
+            throw new IllegalArgumentException("The other store does not keep what this store keeps");
+        }
+        lockAll();
+        try {
+            for (int postalCode = 0; postalCode < PostalCodes.COUNT; postalCode++) {
+                checkTotals(
+                        postalCode, totalWeightInGrams[postalCode] + other.totalWeightInGrams[postalCode],
+                        totalFeeInCents[postalCode] + other.totalFeeInCents[postalCode]
+                );
+            }
+            for (int postalCode = 0; postalCode < PostalCodes.COUNT; postalCode++) {
+                if (other.packageCount[postalCode] > 0) {
+                    totalWeightInGrams[postalCode] += other.totalWeightInGrams[postalCode];
+                    totalFeeInCents[postalCode] += other.totalFeeInCents[postalCode];
+                    packageCount[postalCode] += other.packageCount[postalCode];
+                    if (weightCounts != null) {
+                        getWeightCounts(postalCode).addAll(other.weightCounts[postalCode]);
+                    }
+                    if (weightSketches != null) {
+                        getWeightSketch(postalCode).addAll(other.weightSketches[postalCode]);
+                    }
+                    prefixRollups.add(
+                            postalCode, other.totalWeightInGrams[postalCode], other.totalFeeInCents[postalCode],
+                            other.packageCount[postalCode]
+                    );
+                    rangeSums.add(
+                            postalCode, other.totalWeightInGrams[postalCode], other.totalFeeInCents[postalCode],
+                            other.packageCount[postalCode]
+                    );
+                    for (ChangeTracker changeTracker : changeTrackers) {
+                        changeTracker.mark(postalCode);
+                    }
+                }
+            }
+            if (packages != null) {
+                synchronized (packages) {
+                    packages.addAll(other.packages);
+                }
+            }
+            incrementVersion(0);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    public FeeTable getFeeTable() {
+        return feeTable;
+    }
+
+    /**
+     * @return True if packages can be priced again by {@link #setFeeTable(FeeTable)}, i.e. counts
+     * of packages per distinct weight are kept.
+     */
+    public boolean canPriceAgain() {
+        return weightCounts != null;
+    }
+
+    /**
+     * Replaces the fee table and prices all packages again. Cost depends on the number of distinct
+     * weights per postal code, not on the number of packages. Nobody sees totals priced partly by
+     * the old and partly by the new table.
+     *
+     * @throws IllegalArgumentException If total fee of a postal code would exceed
+     * {@link #MAX_TOTAL}, the fee table is not replaced then.
+     * @throws IllegalStateException If the store has packages, which can not be priced again (see
+     * {@link #canPriceAgain()}), the fee table is not replaced then.
+     */
+    public void setFeeTable(FeeTable feeTable) {
+        lockAll();
+        try {
+            long[] repricedFeeInCents = new long[PostalCodes.COUNT];
+            if (weightCounts != null) {
+                for (int postalCode = 0; postalCode < PostalCodes.COUNT; postalCode++) {
+                    if (packageCount[postalCode] > 0) {
+                        repricedFeeInCents[postalCode] = weightCounts[postalCode].getTotalFeeInCents(feeTable);
+                    }
+                }
+            } else {
+                for (int postalCode = 0; postalCode < PostalCodes.COUNT; postalCode++) {
+                    if (packageCount[postalCode] > 0) {
+                        throw new IllegalStateException("Packages can not be priced again, their weights are not kept");
+                    }
+                }
+            }
+            for (int postalCode = 0; postalCode < PostalCodes.COUNT; postalCode++) {
+                checkTotals(postalCode, totalWeightInGrams[postalCode], repricedFeeInCents[postalCode]);
+            }
+            this.feeTable = feeTable;
+            prefixRollups.replaceFees(repricedFeeInCents);
+            rangeSums.replaceFees(repricedFeeInCents);
+            for (int postalCode = 0; postalCode < PostalCodes.COUNT; postalCode++) {
+                if (packageCount[postalCode] > 0) {
+                    totalFeeInCents[postalCode] = repricedFeeInCents[postalCode];
+                }
+            }
+            for (ChangeTracker changeTracker : changeTrackers) {
+                changeTracker.markAll();
+            }
+            incrementVersion(0);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * @return New tracker of changed postal codes, initially with all postal codes marked.
+     */
+    public ChangeTracker newChangeTracker() {
+        ChangeTracker changeTracker = new ChangeTracker();
+        changeTracker.markAll();
+        changeTrackers.add(changeTracker);
+        return changeTracker;
+    }
+
+    /**
+     * Reads consistent totals of one postal code.
+     *
+     * @param totals Array of 3 to put total weight in grams, total fee in cents and package count
+     * into.
+     * @return False if there is no package for the postal code.
+     */
+    public boolean readTotals(int postalCode, long[] totals) {
+        ReentrantLock lock = locks[stripe(postalCode)];
+        lock.lock();
+        try {
+            totals[0] = totalWeightInGrams[postalCode];
+            totals[1] = totalFeeInCents[postalCode];
+            totals[2] = packageCount[postalCode];
+        } finally {
+            lock.unlock();
+        }
+        return totals[2] > 0;
+    }
+
+    /**
+     * @return Totals of postal codes with at least one package, sorted by total weight descending
+     * and then by postal code. See consistency guarantee of the class.
+     */
+    public List<PostalCodeTotal> getTotals() {
+        long[] weights = new long[PostalCodes.COUNT];
+        long[] fees = new long[PostalCodes.COUNT];
+        long[] counts = new long[PostalCodes.COUNT];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            ReentrantLock lock = locks[stripe];
+            lock.lock();
+            try {
+                for (int postalCode = stripe; postalCode < PostalCodes.COUNT; postalCode += STRIPES) {
+                    weights[postalCode] = totalWeightInGrams[postalCode];
+                    fees[postalCode] = totalFeeInCents[postalCode];
+                    counts[postalCode] = packageCount[postalCode];
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return sort(weights, fees, counts);
+    }
+
+    private static List<PostalCodeTotal> sort(long[] weights, long[] fees, long[] counts) {
+        long[] sortKeys = new long[PostalCodes.COUNT];
+        int size = 0;
+        for (int postalCode = 0; postalCode < PostalCodes.COUNT; postalCode++) {
+            if (counts[postalCode] > 0) {
+                sortKeys[size++] = ReportOrder.toSortKey(postalCode, weights[postalCode]);
+            }
+        }
+        Arrays.sort(sortKeys, 0, size);
+        List<PostalCodeTotal> totals = new ArrayList<>(size);
+        for (int i = size - 1; i >= 0; i--) {
+            int postalCode = ReportOrder.getPostalCode(sortKeys[i]);
+            totals.add(new PostalCodeTotal(
+                    postalCode, weights[postalCode], fees[postalCode], counts[postalCode]
+            ));
+        }
+        return totals;
+    }
+
+    /**
+     * Copies the whole state at once, as if no package was being added.
+     */
+    StoreSnapshot toSnapshot(long journalId, long journalPosition, long sourceFingerprint) {
+        lockAll();
+        try {
+            int size = 0;
+            long distinctWeights = weightCounts != null ? 0 : -1;
+            long weightSketchLongs = 0;
+            for (int postalCode = 0; postalCode < PostalCodes.COUNT; postalCode++) {
+                if (packageCount[postalCode] > 0) {
+                    size++;
+                    if (weightCounts != null) {
+                        distinctWeights += weightCounts[postalCode].size();
+                    }
+                    if (weightSketches != null) {
+                        weightSketchLongs += weightSketches[postalCode].getCopySize();
+                    }
+                }
+            }
+            if (distinctWeights > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many distinct weights for a snapshot: " + distinctWeights);
+            }
+            StoreSnapshot snapshot = new StoreSnapshot(
+                    journalId, journalPosition, sourceFingerprint, feeTable, size, (int) distinctWeights
+            );
+            if (weightSketches != null) {
+                snapshot.weightSketchSizes = new int[size];
+                snapshot.weightSketches = new long[(int) weightSketchLongs];
+            }
+            int i = 0;
+            int weightOffset = 0;
+            int weightSketchOffset = 0;
+            for (int postalCode = 0; postalCode < PostalCodes.COUNT; postalCode++) {
+                if (packageCount[postalCode] > 0) {
+                    snapshot.postalCodes[i] = postalCode;
+                    snapshot.totalWeightInGrams[i] = totalWeightInGrams[postalCode];
+                    snapshot.totalFeeInCents[i] = totalFeeInCents[postalCode];
+                    snapshot.packageCounts[i] = packageCount[postalCode];
+                    if (weightCounts != null) {
+                        WeightCounts postalCodeWeightCounts = weightCounts[postalCode];
+                        snapshot.distinctWeightCounts[i] = postalCodeWeightCounts.size();
+                        postalCodeWeightCounts.copyTo(snapshot.weightsInGrams, snapshot.weightPackageCounts, weightOffset);
+                        weightOffset += postalCodeWeightCounts.size();
+                    }
+                    if (weightSketches != null) {
+                        WeightSketch sketch = weightSketches[postalCode];
+                        snapshot.weightSketchSizes[i] = sketch.getCopySize();
+                        sketch.copyTo(snapshot.weightSketches, weightSketchOffset);
+                        weightSketchOffset += sketch.getCopySize();
+                    }
+                    i++;
+                }
+            }
+            if (packages != null) {
+                synchronized (packages) {
+                    snapshot.packages = packages.toPackedArray();
+                }
+            }
+            return snapshot;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Replaces the whole state of an empty store by the snapshot, which has to contain what the
+     * store keeps.
+     */
+    void restore(StoreSnapshot snapshot) {
+        if ((packages != null && !snapshot.hasPackages()) || (weightCounts != null && !snapshot.hasWeightCounts())
+                || (weightSketches != null && !snapshot.hasWeightSketches())) {
+            throw new IllegalArgumentException("The snapshot does not contain what the store keeps");
+        }
+        lockAll();
+        try {
+            feeTable = snapshot.getFeeTable();
+            int weightOffset = 0;
+            int weightSketchOffset = 0;
+            for (int i = 0; i < snapshot.size(); i++) {
+                int postalCode = snapshot.postalCodes[i];
+                totalWeightInGrams[postalCode] = snapshot.totalWeightInGrams[i];
+                totalFeeInCents[postalCode] = snapshot.totalFeeInCents[i];
+                packageCount[postalCode] = snapshot.packageCounts[i];
+                prefixRollups.add(
+                        postalCode, snapshot.totalWeightInGrams[i], snapshot.totalFeeInCents[i],
+                        snapshot.packageCounts[i]
+                );
+                rangeSums.add(
+                        postalCode, snapshot.totalWeightInGrams[i], snapshot.totalFeeInCents[i],
+                        snapshot.packageCounts[i]
+                );
+                if (weightCounts != null) {
+                    WeightCounts postalCodeWeightCounts = getWeightCounts(postalCode);
+                    for (int end = weightOffset + snapshot.distinctWeightCounts[i]; weightOffset < end; weightOffset++) {
+                        postalCodeWeightCounts.add(
+                                snapshot.weightsInGrams[weightOffset], snapshot.weightPackageCounts[weightOffset]
+                        );
+                    }
+                } else {
+                    weightOffset += snapshot.distinctWeightCounts[i];
+                }
+                if (weightSketches != null) {
+                    getWeightSketch(postalCode).addCopy(
+                            snapshot.weightSketches, weightSketchOffset, snapshot.weightSketchSizes[i]
+                    );
+                }
+                if (snapshot.hasWeightSketches()) {
+                    weightSketchOffset += snapshot.weightSketchSizes[i];
+                }
+            }
+            if (packages != null) {
+                synchronized (packages) {
+                    packages.addAll(snapshot.packages);
+                }
+            }
+            for (ChangeTracker changeTracker : changeTrackers) {
+                changeTracker.markAll();
+            }
+            incrementVersion(0);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Reads totals of a region in constant time, see {@link PrefixRollups} for consistency.
+     *
+     * @param digits Number of digits of the prefix, from 1 to 3.
+     * @param prefix Prefix, e.g. 88 for region 088 of 3 digits.
+     * @param totals Array of 3 to put total weight in grams, total fee in cents and package count
+     * into.
+     * @return False if there is no package for the region.
+     */
+    public boolean readRegionTotals(int digits, int prefix, long[] totals) {
+        if (digits < 1 || digits > PrefixRollups.MAX_DIGITS || prefix < 0 || prefix >= getRegionCount(digits)) {
+            throw new IllegalArgumentException("Region " + prefix + " of " + digits + " digits does not exist");
+        }
+        prefixRollups.read(digits, prefix, totals);
+        return totals[2] > 0;
+    }
+
+    /**
+     * Reads totals of a range of postal codes in logarithmic time without any lock, see
+     * {@link RangeSums} for consistency.
+     *
+     * @param fromPostalCode First postal code of the range.
+     * @param toPostalCode Last postal code of the range, inclusive.
+     * @param totals Array of 3 to put total weight in grams, total fee in cents and package count
+     * into.
+     * @return False if there is no package in the range.
+     */
+    public boolean readRangeTotals(int fromPostalCode, int toPostalCode, long[] totals) {
+        if (fromPostalCode < 0 || toPostalCode >= PostalCodes.COUNT || fromPostalCode > toPostalCode) {
+            throw new IllegalArgumentException("Range " + fromPostalCode + " - " + toPostalCode + " is not valid");
+        }
+        rangeSums.read(fromPostalCode, toPostalCode, totals);
+        return totals[2] > 0;
+    }
+
+    /**
+     * @return Number of regions of postal code prefixes with the number of digits.
+     */
+    public static int getRegionCount(int digits) {
+        return digits == 1 ? 10 : digits == 2 ? 100 : 1000;
+    }
+
+    public boolean isKeepingWindows() {
+        return windowedTotals != null;
+    }
+
+    /**
+     * @return Number of time slots of windowed totals.
+     */
+    public int getWindowSlots() {
+        return windowedTotals != null ? windowedTotals.getSlots() : 0;
+    }
+
+    public long getWindowSlotMillis() {
+        return windowedTotals != null ? windowedTotals.getSlotMillis() : 0;
+    }
+
+    /**
+     * Moves windowed totals to the current time slot. Packages are added into the slot current at
+     * the last move, so it should be called regularly (queries of windows call it too).
+     */
+    public void advanceWindows() {
+        if (windowedTotals == null) {
+            return;
+        }
+        lockAll();
+        try {
+            windowedTotals.advance(clock.getAsLong());
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * @param windowSlots Number of slots of the window, from 1 to {@link #getWindowSlots()} for
+     * sliding window and one less for tumbling window.
+     * @param tumbling False for sliding window (the current slot and previous ones), true for
+     * tumbling window (previous completed slots only).
+     * @return Window totals of postal codes with at least one package in the window, sorted like
+     * {@link #getTotals()}.
+     */
+    public List<PostalCodeTotal> getWindowTotals(int windowSlots, boolean tumbling) {
+        int maxWindowSlots = tumbling ? getWindowSlots() - 1 : getWindowSlots();
+        if (windowSlots < 1 || windowSlots > maxWindowSlots) {
+            throw new IllegalArgumentException(
+                    "Window of " + windowSlots + " slots expected to be from 1 to " + maxWindowSlots + " slots"
+            );
+        }
+        advanceWindows();
+        long[] weights = new long[PostalCodes.COUNT];
+        long[] fees = new long[PostalCodes.COUNT];
+        long[] counts = new long[PostalCodes.COUNT];
+        long[] totals = new long[3];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            ReentrantLock lock = locks[stripe];
+            lock.lock();
+            try {
+                for (int postalCode = stripe; postalCode < PostalCodes.COUNT; postalCode += STRIPES) {
+                    if (packageCount[postalCode] > 0) {
+                        windowedTotals.read(postalCode, windowSlots, tumbling, totals);
+                        weights[postalCode] = totals[0];
+                        fees[postalCode] = totals[1];
+                        counts[postalCode] = totals[2];
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return sort(weights, fees, counts);
+    }
+
+    /**
+     * @return Accepted packages, or null if keeping of packages is disabled. The list may be read
+     * only while no packages are added.
+     */
+    public PackageList getPackages() {
+        return packages;
+    }
+
+    public boolean isKeepingPackages() {
+        return packages != null;
+    }
+
+    public boolean isKeepingWeightCounts() {
+        return weightCounts != null;
+    }
+
+    public boolean isKeepingWeightSketches() {
+        return weightSketches != null;
+    }
+
+    /**
+     * Reads quantiles of package weights of one postal code, see {@link WeightSketch} for accuracy.
+     *
+     * @param quantiles Quantiles from 0 to 1, e.g. 0.5 for median weight.
+     * @param weightsInGrams Array to put weights at the quantiles into.
+     * @return False if there is no package for the postal code.
+     * @throws IllegalStateException If distributions of weights are not kept.
+     */
+    public boolean readWeightQuantiles(int postalCode, double[] quantiles, long[] weightsInGrams) {
+        return readWeightQuantiles(postalCode, postalCode, quantiles, weightsInGrams);
+    }
+
+    /**
+     * Reads quantiles of package weights of a region, merged from postal codes of the region.
+     *
+     * @param digits Number of digits of the prefix, from 1 to 3.
+     * @param prefix Prefix, e.g. 88 for region 088 of 3 digits.
+     * @see #readWeightQuantiles(int, double[], long[])
+     */
+    public boolean readRegionWeightQuantiles(int digits, int prefix, double[] quantiles, long[] weightsInGrams) {
+        if (digits < 1 || digits > PrefixRollups.MAX_DIGITS || prefix < 0 || prefix >= getRegionCount(digits)) {
+            throw new IllegalArgumentException("Region " + prefix + " of " + digits + " digits does not exist");
+        }
+        int regionSize = PostalCodes.COUNT / getRegionCount(digits);
+        return readWeightQuantiles(prefix * regionSize, (prefix + 1) * regionSize - 1, quantiles, weightsInGrams);
+    }
+
+    private boolean readWeightQuantiles(int fromPostalCode, int toPostalCode, double[] quantiles,
+            long[] weightsInGrams) {
+        if (weightSketches == null) {
+            throw new IllegalStateException("Distributions of weights are not kept");
+        }
+        WeightSketch merged = new WeightSketch();
+        for (int postalCode = fromPostalCode; postalCode <= toPostalCode; postalCode++) {
+            ReentrantLock lock = locks[stripe(postalCode)];
+            lock.lock();
+            try {
+                if (weightSketches[postalCode] != null) {
+                    merged.addAll(weightSketches[postalCode]);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        for (int i = 0; i < quantiles.length; i++) {
+            weightsInGrams[i] = merged.getWeightInGramsAtQuantile(quantiles[i]);
+        }
+        return merged.getCount() > 0;
+    }
+
+    /**
+     * @return Version of the data, higher after any package is added or fees are priced again,
+     * the same as long as nothing changes. It is read without any lock, a change is included at
+     * latest when it is visible to {@link #readTotals(int, long[])}.
+     */
+    public long getVersion() {
+        long version = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            version += stripeVersions.get(stripe * VERSION_PADDING);
+        }
+        return version;
+    }
+
+    /**
+     * Under the stripe lock.
+     */
+    private void incrementVersion(int stripe) {
+        int index = stripe * VERSION_PADDING;
+        stripeVersions.set(index, stripeVersions.get(index) + 1);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the weight is out of range 1 - {@link Package#MAX_WEIGHT_IN_GRAMS}.
+     */
+    static void checkWeight(long weightInGrams) {
+        if (weightInGrams <= 0 || weightInGrams > Package.MAX_WEIGHT_IN_GRAMS) {
+            throw new IllegalArgumentException(
+                    "Weight " + weightInGrams + " g is out of range 1 - " + Package.MAX_WEIGHT_IN_GRAMS + " g"
+            );
+        }
+    }
+
+    private static void checkTotals(int postalCode, long totalWeightInGrams, long totalFeeInCents) {
+        if (totalWeightInGrams > MAX_TOTAL || totalFeeInCents > MAX_TOTAL) {
+            throw new IllegalArgumentException(
+                    "Totals of postal code " + PostalCodes.toString(postalCode) + " would exceed " + MAX_TOTAL
+                    + " grams or cents"
+            );
+        }
+    }
+
+    static int stripe(int postalCode) {
+        return postalCode & (STRIPES - 1);
+    }
+
+    private void lockAll() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int stripe = STRIPES - 1; stripe >= 0; stripe--) {
+            locks[stripe].unlock();
+        }
+    }
+
+    private WeightSketch getWeightSketch(int postalCode) {
+        WeightSketch sketch = weightSketches[postalCode];
+        if (sketch == null) {
+            sketch = new WeightSketch();
+            weightSketches[postalCode] = sketch;
+        }
+        return sketch;
+    }
+
+    private WeightCounts getWeightCounts(int postalCode) {
+        WeightCounts counts = weightCounts[postalCode];
+        if (counts == null) {
+            counts = new WeightCounts();
+            weightCounts[postalCode] = counts;
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,55 @@
+package cz.stanislavsimek.bsctest.store;
+
+import java.math.BigDecimal;
+
+/**
+ * Totals of all packages sent to one postal code.
+ */
+public class PostalCodeTotal {
+
+    private final int postalCode;
+    private final long totalWeightInGrams;
+    private final long totalFeeInCents;
+    private final long packageCount;
+
+    public PostalCodeTotal(int postalCode, long totalWeightInGrams, long totalFeeInCents, long packageCount) {
+        this.postalCode = postalCode;
+        this.totalWeightInGrams = totalWeightInGrams;
+        this.totalFeeInCents = totalFeeInCents;
+        this.packageCount = packageCount;
+    }
+
+    public String getPostalCode() {
+        return PostalCodes.toString(postalCode);
+    }
+
+    public int getPostalCodeIndex() {
+        return postalCode;
+    }
+
+    public long getTotalWeightInGrams() {
+        return totalWeightInGrams;
+    }
+
+    public BigDecimal getTotalWeightInKg() {
+        return BigDecimal.valueOf(totalWeightInGrams, 3);
+    }
+
+    public long getTotalFeeInCents() {
+        return totalFeeInCents;
+    }
+
+    public BigDecimal getTotalFee() {
+        return BigDecimal.valueOf(totalFeeInCents, 2);
+    }
+
+    public long getPackageCount() {
+        return packageCount;
+    }
+
+    @Override
+    public String toString() {
+        return getPostalCode() + " " + getTotalWeightInKg() + " kg, " + getTotalFee() + " EUR, "
+                + packageCount + " packages";
+    }
+}
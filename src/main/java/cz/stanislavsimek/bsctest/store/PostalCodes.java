@@ -0,0 +1,47 @@
+package cz.stanislavsimek.bsctest.store;
+
+/**
+ * Postal code is fixed 5 digits, so it maps directly to an int index 0 - 99999.
+ */
+public final class PostalCodes {
+
+    public static final int COUNT = 100000;
+
+    private PostalCodes() {
+    }
+
+    /**
+     * @return True if the string is a postal code, 5 digits.
+     */
+    public static boolean isValid(String postalCode) {
+        if (postalCode == null || postalCode.length() != 5) {
+            return false;
+        }
+        for (int i = 0; i < 5; i++) {
+            if (postalCode.charAt(i) < '0' || postalCode.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param postalCode Valid postal code, 5 digits.
+     */
+    public static int toIndex(String postalCode) {
+        int index = 0;
+        for (int i = 0; i < 5; i++) {
+            index = index * 10 + (postalCode.charAt(i) - '0');
+        }
+        return index;
+    }
+
+    public static String toString(int index) {
+        char[] digits = new char[5];
+        for (int i = 4; i >= 0; i--) {
+            digits[i] = (char) ('0' + index % 10);
+            index /= 10;
+        }
+        return new String(digits);
+    }
+}
@@ -0,0 +1,67 @@
+package cz.stanislavsimek.bsctest.store;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Totals of regions - postal codes with the same first 1, 2 or 3 digits, updated as packages are
+ * added, so that a region total is a constant time read. Regions of all levels are in one array:
+ * 10 regions of 1 digit, then 100 regions of 2 digits, then 1000 regions of 3 digits.
+ *
+ * Postal codes of a region belong to different stripes of the store, so totals are updated by
+ * atomic adds and weight, fee and count of a region are read separately - the read may be a few
+ * packages off in between. Fees priced again by the store (under all its locks) are summed into a
+ * new array, which replaces the current one at once, so a read never sees fees of regions priced
+ * partly by the old and partly by the new fee table.
+ */
+final class PrefixRollups {
+
+    static final int MAX_DIGITS = 3;
+
+    private static final int[] OFFSETS = {0, 0, 10, 110};
+    private static final int[] DIVISORS = {0, 10000, 1000, 100};
+    private static final int SIZE = 1110;
+
+    private final AtomicLongArray weightInGrams = new AtomicLongArray(SIZE);
+    private volatile AtomicLongArray feeInCents = new AtomicLongArray(SIZE);
+    private final AtomicLongArray packageCount = new AtomicLongArray(SIZE);
+
+    /**
+     * Called under the stripe lock of the postal code, so that fees are not replaced meanwhile.
+     */
+    void add(int postalCode, long weightInGrams, long feeInCents, long packageCount) {
+        AtomicLongArray fees = this.feeInCents;
+        for (int digits = 1; digits <= MAX_DIGITS; digits++) {
+            int region = OFFSETS[digits] + postalCode / DIVISORS[digits];
+            this.weightInGrams.addAndGet(region, weightInGrams);
+            fees.addAndGet(region, feeInCents);
+            this.packageCount.addAndGet(region, packageCount);
+        }
+    }
+
+    /**
+     * Called under all stripe locks.
+     *
+     * @param feeInCents Total fee of each postal code.
+     */
+    void replaceFees(long[] feeInCents) {
+        long[] fees = new long[SIZE];
+        for (int postalCode = 0; postalCode < PostalCodes.COUNT; postalCode++) {
+            if (feeInCents[postalCode] != 0) {
+                for (int digits = 1; digits <= MAX_DIGITS; digits++) {
+                    fees[OFFSETS[digits] + postalCode / DIVISORS[digits]] += feeInCents[postalCode];
+                }
+            }
+        }
+        this.feeInCents = new AtomicLongArray(fees);
+    }
+
+    /**
+     * @param totals Array of 3 to put weight in grams, fee in cents and package count into.
+     */
+    void read(int digits, int prefix, long[] totals) {
+        int region = OFFSETS[digits] + prefix;
+        totals[0] = weightInGrams.get(region);
+        totals[1] = feeInCents.get(region);
+        totals[2] = packageCount.get(region);
+    }
+}
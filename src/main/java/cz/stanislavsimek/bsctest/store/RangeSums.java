@@ -0,0 +1,75 @@
+package cz.stanislavsimek.bsctest.store;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fenwick trees of weight, fee and count over all postal codes, updated as packages are added, so
+ * that totals of any range of postal codes are read in logarithmic time, without scanning postal
+ * codes or packages.
+ *
+ * Nodes cover postal codes of different stripes of the store, so they are updated by atomic adds
+ * and read without any lock - a range read does not block adding of packages, and it may be a few
+ * packages off when packages are added meanwhile. Fees priced again by the store (under all its
+ * locks) are built into a new tree, which replaces the current one at once, so a read never sees
+ * fees priced partly by the old and partly by the new fee table.
+ */
+final class RangeSums {
+
+    private static final int SIZE = PostalCodes.COUNT + 1;
+
+    private final AtomicLongArray weightInGrams = new AtomicLongArray(SIZE);
+    private volatile AtomicLongArray feeInCents = new AtomicLongArray(SIZE);
+    private final AtomicLongArray packageCount = new AtomicLongArray(SIZE);
+
+    /**
+     * Called under the stripe lock of the postal code, so that fees are not replaced meanwhile.
+     */
+    void add(int postalCode, long weightInGrams, long feeInCents, long packageCount) {
+        AtomicLongArray fees = this.feeInCents;
+        for (int node = postalCode + 1; node < SIZE; node += node & -node) {
+            this.weightInGrams.addAndGet(node, weightInGrams);
+            fees.addAndGet(node, feeInCents);
+            this.packageCount.addAndGet(node, packageCount);
+        }
+    }
+
+    /**
+     * Builds the tree of fees in linear time, each node adds itself into its parent. Called under
+     * all stripe locks.
+     *
+     * @param feeInCents Total fee of each postal code.
+     */
+    void replaceFees(long[] feeInCents) {
+        long[] fees = new long[SIZE];
+        System.arraycopy(feeInCents, 0, fees, 1, PostalCodes.COUNT);
+        for (int node = 1; node < SIZE; node++) {
+            int parent = node + (node & -node);
+            if (parent < SIZE) {
+                fees[parent] += fees[node];
+            }
+        }
+        this.feeInCents = new AtomicLongArray(fees);
+    }
+
+    /**
+     * @param fromPostalCode First postal code of the range.
+     * @param toPostalCode Last postal code of the range, inclusive.
+     * @param totals Array of 3 to put weight in grams, fee in cents and package count into.
+     */
+    void read(int fromPostalCode, int toPostalCode, long[] totals) {
+        AtomicLongArray fees = this.feeInCents;
+        totals[0] = 0;
+        totals[1] = 0;
+        totals[2] = 0;
+        for (int node = toPostalCode + 1; node > 0; node -= node & -node) {
+            totals[0] += weightInGrams.get(node);
+            totals[1] += fees.get(node);
+            totals[2] += packageCount.get(node);
+        }
+        for (int node = fromPostalCode; node > 0; node -= node & -node) {
+            totals[0] -= weightInGrams.get(node);
+            totals[1] -= fees.get(node);
+            totals[2] -= packageCount.get(node);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package cz.stanislavsimek.bsctest.store;
+
+/**
+ * Report is ordered by total weight descending and then by postal code. Both are packed into one
+ * long sort key, whose ascending order is ascending total weight and descending postal code, so
+ * the report walks the keys backwards.
+ *
+ * Total weight of a postal code must be at most {@link PackageStore#MAX_TOTAL} grams.
+ */
+public final class ReportOrder {
+
+    private ReportOrder() {
+    }
+
+    public static long toSortKey(int postalCode, long totalWeightInGrams) {
+        return totalWeightInGrams * PostalCodes.COUNT + (PostalCodes.COUNT - 1 - postalCode);
+    }
+
+    public static int getPostalCode(long sortKey) {
+        return PostalCodes.COUNT - 1 - (int) (sortKey % PostalCodes.COUNT);
+    }
+}
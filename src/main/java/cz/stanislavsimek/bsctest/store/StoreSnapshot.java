@@ -0,0 +1,334 @@
+package cz.stanislavsimek.bsctest.store;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Whole state of a {@link PackageStore} - totals per postal code, counts of packages per distinct
+ * weight (so that fees can be priced again), the fee table, kept packages and distributions of
+ * weights - in a fixed layout binary file, which is memory mapped and read without any parsing.
+ * Counts per distinct weight, packages and distributions are there only if the store keeps them.
+ *
+ * Layout (big endian): header [magic: int][version: int][journal id: long][journal position:
+ * long][source fingerprint: long][fee tiers: int][postal codes: int][distinct weights: long, -1
+ * if not kept][packages: long, -1 if not kept][longs of distributions: long, -1 if not kept],
+ * then fee tiers [threshold in grams: long][fee in cents: long], postal codes [postal code:
+ * int][distinct weights: int][total weight in grams: long][total fee in cents: long][package
+ * count: long], distinct weights of the postal codes in the same order [weight in grams:
+ * long][package count: long], packages packed by {@link PackageList#pack(int, long)},
+ * distributions of the postal codes in the same order [longs: int][longs of
+ * {@link WeightSketch#copyTo(long[], int)}] and finally [CRC32 of everything before: int].
+ *
+ * Journal id and position tell where replay of the journal continues, source fingerprint tells
+ * which initial files the state was loaded from.
+ */
+public final class StoreSnapshot {
+
+    static final int MAGIC = 0x42534353;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int FEE_TIER_SIZE = 16;
+    static final int POSTAL_CODE_SIZE = 32;
+    static final int DISTINCT_WEIGHT_SIZE = 16;
+
+    private final long journalId;
+    private final long journalPosition;
+    private final long sourceFingerprint;
+    private final FeeTable feeTable;
+    private final int size;
+
+    final int[] postalCodes;
+    final long[] totalWeightInGrams;
+    final long[] totalFeeInCents;
+    final long[] packageCounts;
+    final int[] distinctWeightCounts;
+
+    /**
+     * Distinct weights and their counts, or null if not kept.
+     */
+    final long[] weightsInGrams;
+    final long[] weightPackageCounts;
+
+    /**
+     * Packed packages, or null if not kept.
+     */
+    long[] packages;
+
+    /**
+     * Copied distributions of weights per postal code and their sizes, or null if not kept.
+     */
+    int[] weightSketchSizes;
+    long[] weightSketches;
+
+    /**
+     * @param distinctWeights Number of distinct weights of all postal codes, -1 if not kept.
+     */
+    StoreSnapshot(long journalId, long journalPosition, long sourceFingerprint, FeeTable feeTable,
+            int size, int distinctWeights) {
+        this.journalId = journalId;
+        this.journalPosition = journalPosition;
+        this.sourceFingerprint = sourceFingerprint;
+        this.feeTable = feeTable;
+        this.size = size;
+        this.postalCodes = new int[size];
+        this.totalWeightInGrams = new long[size];
+        this.totalFeeInCents = new long[size];
+        this.packageCounts = new long[size];
+        this.distinctWeightCounts = new int[size];
+        this.weightsInGrams = distinctWeights >= 0 ? new long[distinctWeights] : null;
+        this.weightPackageCounts = distinctWeights >= 0 ? new long[distinctWeights] : null;
+    }
+
+    /**
+     * @param journalId Id of the journal, whose changes up to the position are in the store, or 0.
+     * @param journalPosition Position in the journal, where replay continues.
+     * @param sourceFingerprint See {@link #fingerprintOf(String...)}.
+     */
+    public static StoreSnapshot capture(PackageStore store, long journalId, long journalPosition,
+            long sourceFingerprint) {
+        return store.toSnapshot(journalId, journalPosition, sourceFingerprint);
+    }
+
+    /**
+     * @return Fingerprint of files (name, size and time of last modification), the same as long as
+     * the files are not changed.
+     */
+    public static long fingerprintOf(String... fileNames) {
+        long fingerprint = 17;
+        for (String fileName : fileNames) {
+            File file = new File(fileName);
+            fingerprint = fingerprint * 31 + file.getAbsolutePath().hashCode();
+            fingerprint = fingerprint * 31 + file.length();
+            fingerprint = fingerprint * 31 + file.lastModified();
+        }
+        return fingerprint;
+    }
+
+    public long getJournalId() {
+        return journalId;
+    }
+
+    public long getJournalPosition() {
+        return journalPosition;
+    }
+
+    public long getSourceFingerprint() {
+        return sourceFingerprint;
+    }
+
+    public FeeTable getFeeTable() {
+        return feeTable;
+    }
+
+    /**
+     * @return Number of postal codes with at least one package.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean hasPackages() {
+        return packages != null;
+    }
+
+    public boolean hasWeightCounts() {
+        return weightsInGrams != null;
+    }
+
+    public boolean hasWeightSketches() {
+        return weightSketches != null;
+    }
+
+    /**
+     * Replaces the whole state of an empty store by the snapshot.
+     */
+    public void restoreInto(PackageStore store) {
+        store.restore(this);
+    }
+
+    /**
+     * Writes the snapshot into a temporary file first, which then replaces the file, so that there
+     * is always a complete snapshot.
+     *
+     * @throws IOException If the snapshot can not be written or it would be too large to be read by
+     * {@link #read(File)}, the previous file is kept then.
+     */
+    public void writeTo(File file) throws IOException {
+        long fileSize = fileSize(
+                feeTable.size(), size, weightsInGrams != null ? weightsInGrams.length : -1,
+                packages != null ? packages.length : -1, weightSketches != null ? weightSketches.length : -1
+        );
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException(
+                    "Snapshot of " + fileSize + " bytes is larger than " + Integer.MAX_VALUE + " bytes, file '" + file
+                            + "' is kept"
+            );
+        }
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOutput = new FileOutputStream(temporaryFile)) {
+            DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(new CheckedOutputStream(fileOutput, crc), 1 << 16)
+            );
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(journalId);
+            output.writeLong(journalPosition);
+            output.writeLong(sourceFingerprint);
+            output.writeInt(feeTable.size());
+            output.writeInt(size);
+            output.writeLong(weightsInGrams != null ? weightsInGrams.length : -1);
+            output.writeLong(packages != null ? packages.length : -1);
+            output.writeLong(weightSketches != null ? weightSketches.length : -1);
+            for (int tier = 0; tier < feeTable.size(); tier++) {
+                output.writeLong(feeTable.getThresholdInGrams(tier));
+                output.writeLong(feeTable.getFeeInCentsOfTier(tier));
+            }
+            for (int i = 0; i < size; i++) {
+                output.writeInt(postalCodes[i]);
+                output.writeInt(distinctWeightCounts[i]);
+                output.writeLong(totalWeightInGrams[i]);
+                output.writeLong(totalFeeInCents[i]);
+                output.writeLong(packageCounts[i]);
+            }
+            if (weightsInGrams != null) {
+                for (int i = 0; i < weightsInGrams.length; i++) {
+                    output.writeLong(weightsInGrams[i]);
+                    output.writeLong(weightPackageCounts[i]);
+                }
+            }
+            if (packages != null) {
+                for (long _package : packages) {
+                    output.writeLong(_package);
+                }
+            }
+            if (weightSketches != null) {
+                int offset = 0;
+                for (int i = 0; i < size; i++) {
+                    output.writeInt(weightSketchSizes[i]);
+                    for (int end = offset + weightSketchSizes[i]; offset < end; offset++) {
+                        output.writeLong(weightSketches[offset]);
+                    }
+                }
+            }
+            output.flush();
+            output.writeInt((int) crc.getValue());
+            output.flush();
+            fileOutput.getChannel().force(true);
+        }
+        Files.move(
+                temporaryFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+        );
+    }
+
+    /**
+     * @return Size of the file of a snapshot, -1 counts stand for parts not kept.
+     */
+    private static long fileSize(
+            int feeTiers, int size, long distinctWeights, long packageCount, long weightSketchLongs
+    ) {
+        return HEADER_SIZE + (long) feeTiers * FEE_TIER_SIZE + (long) size * POSTAL_CODE_SIZE
+                + Math.max(distinctWeights, 0) * DISTINCT_WEIGHT_SIZE + Math.max(packageCount, 0) * 8
+                + (weightSketchLongs >= 0 ? size * 4L + weightSketchLongs * 8 : 0) + 4;
+    }
+
+    /**
+     * @throws IOException If the file can not be read or it is not a complete snapshot.
+     */
+    public static StoreSnapshot read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE + 4) {
+                throw new IOException("File '" + file + "' is not a snapshot");
+            }
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("File '" + file + "' is too large for a snapshot");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("File '" + file + "' is not a snapshot of version " + VERSION);
+            }
+            ByteBuffer content = buffer.duplicate();
+            content.limit((int) fileSize - 4);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            if ((int) crc.getValue() != buffer.getInt((int) fileSize - 4)) {
+                throw new IOException("Snapshot '" + file + "' is damaged");
+            }
+
+            buffer.position(8);
+            long journalId = buffer.getLong();
+            long journalPosition = buffer.getLong();
+            long sourceFingerprint = buffer.getLong();
+            int feeTiers = buffer.getInt();
+            int size = buffer.getInt();
+            long distinctWeights = buffer.getLong();
+            long packageCount = buffer.getLong();
+            long weightSketchLongs = buffer.getLong();
+            long expectedSize = fileSize(feeTiers, size, distinctWeights, packageCount, weightSketchLongs);
+            if (feeTiers < 0 || size < 0 || distinctWeights < -1 || packageCount < -1 || weightSketchLongs < -1
+                    || expectedSize != fileSize) {
+                throw new IOException("Snapshot '" + file + "' is damaged");
+            }
+            buffer.position(HEADER_SIZE);
+
+            FeeTable.Builder feeTable = new FeeTable.Builder();
+            for (int tier = 0; tier < feeTiers; tier++) {
+                feeTable.put(buffer.getLong(), buffer.getLong());
+            }
+            StoreSnapshot snapshot = new StoreSnapshot(
+                    journalId, journalPosition, sourceFingerprint, feeTable.build(), size, (int) distinctWeights
+            );
+            for (int i = 0; i < size; i++) {
+                snapshot.postalCodes[i] = buffer.getInt();
+                snapshot.distinctWeightCounts[i] = buffer.getInt();
+                snapshot.totalWeightInGrams[i] = buffer.getLong();
+                snapshot.totalFeeInCents[i] = buffer.getLong();
+                snapshot.packageCounts[i] = buffer.getLong();
+                if (snapshot.postalCodes[i] < 0 || snapshot.postalCodes[i] >= PostalCodes.COUNT) {
+                    throw new IOException("Snapshot '" + file + "' is damaged");
+                }
+            }
+            for (int i = 0; i < distinctWeights; i++) {
+                snapshot.weightsInGrams[i] = buffer.getLong();
+                snapshot.weightPackageCounts[i] = buffer.getLong();
+            }
+            if (packageCount >= 0) {
+                snapshot.packages = new long[(int) packageCount];
+                buffer.asLongBuffer().get(snapshot.packages);
+                buffer.position(buffer.position() + (int) packageCount * 8);
+            }
+            if (weightSketchLongs >= 0) {
+                snapshot.weightSketchSizes = new int[size];
+                snapshot.weightSketches = new long[(int) weightSketchLongs];
+                int offset = 0;
+                for (int i = 0; i < size; i++) {
+                    int sketchSize = buffer.getInt();
+                    if (sketchSize < 0 || sketchSize > WeightSketch.MAX_COPY_SIZE
+                            || offset + sketchSize > weightSketchLongs) {
+                        throw new IOException("Snapshot '" + file + "' is damaged");
+                    }
+                    snapshot.weightSketchSizes[i] = sketchSize;
+                    for (int end = offset + sketchSize; offset < end; offset++) {
+                        snapshot.weightSketches[offset] = buffer.getLong();
+                    }
+                }
+            }
+            return snapshot;
+        }
+    }
+}
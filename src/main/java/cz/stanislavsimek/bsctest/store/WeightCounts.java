@@ -0,0 +1,99 @@
+package cz.stanislavsimek.bsctest.store;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+
+/**
+ * Number of packages per distinct weight, for one postal code. It is what is needed to price the
+ * packages again under another fee table, without keeping the packages. Its size is the number of
+ * distinct weights, not the number of packages.
+ *
+ * Open addressing hash map of weight in grams to count, weight 0 marks an empty slot (weight of a
+ * package is always positive).
+ */
+final class WeightCounts {
+
+    private long[] weightsInGrams = new long[8];
+    private long[] counts = new long[8];
+    private int size;
+
+    void add(long weightInGrams, long count) {
+        int mask = weightsInGrams.length - 1;
+        int slot = hash(weightInGrams) & mask;
+        while (weightsInGrams[slot] != 0) {
+            if (weightsInGrams[slot] == weightInGrams) {
+                counts[slot] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        weightsInGrams[slot] = weightInGrams;
+        counts[slot] = count;
+        if (++size * 4 > weightsInGrams.length * 3) {
+            grow();
+        }
+    }
+
+    void addAll(WeightCounts other) {
+        for (int slot = 0; slot < other.weightsInGrams.length; slot++) {
+            if (other.weightsInGrams[slot] != 0) {
+                add(other.weightsInGrams[slot], other.counts[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return Number of distinct weights.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Copies distinct weights and their counts into the arrays from the offset.
+     */
+    void copyTo(long[] weightsInGrams, long[] counts, int offset) {
+        for (int slot = 0; slot < this.weightsInGrams.length; slot++) {
+            if (this.weightsInGrams[slot] != 0) {
+                weightsInGrams[offset] = this.weightsInGrams[slot];
+                counts[offset++] = this.counts[slot];
+            }
+        }
+    }
+
+    /**
+     * @return Total fee of all the packages in cents, {@link Long#MAX_VALUE} if it overflows.
+     */
+    long getTotalFeeInCents(FeeTable feeTable) {
+        long totalFeeInCents = 0;
+        try {
+            for (int slot = 0; slot < weightsInGrams.length; slot++) {
+                if (weightsInGrams[slot] != 0) {
+                    totalFeeInCents = Math.addExact(
+                            totalFeeInCents, Math.multiplyExact(feeTable.getFeeInCents(weightsInGrams[slot]), counts[slot])
+                    );
+                }
+            }
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+        return totalFeeInCents;
+    }
+
+    private void grow() {
+        long[] oldWeightsInGrams = weightsInGrams;
+        long[] oldCounts = counts;
+        weightsInGrams = new long[oldWeightsInGrams.length * 2];
+        counts = new long[oldCounts.length * 2];
+        size = 0;
+        for (int slot = 0; slot < oldWeightsInGrams.length; slot++) {
+            if (oldWeightsInGrams[slot] != 0) {
+                add(oldWeightsInGrams[slot], oldCounts[slot]);
+            }
+        }
+    }
+
+    private static int hash(long weightInGrams) {
+        long h = weightInGrams * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
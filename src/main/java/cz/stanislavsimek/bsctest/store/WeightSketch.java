@@ -0,0 +1,135 @@
+package cz.stanislavsimek.bsctest.store;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of package weights of one postal code, for quantiles (e.g. median weight). Weights
+ * are counted in log-linear buckets like in {@link cz.stanislavsimek.bsctest.metrics.LatencyHistogram}
+ * - each power of two grams is split into 8 buckets, so that a quantile is at most 12.5 % above
+ * the real weight, and never below the lightest or above the heaviest package.
+ *
+ * Memory is bounded by the heaviest package, not by the number of packages or distinct weights:
+ * buckets grow up to the bucket of the heaviest package, at most 496 counts. Sketches are
+ * mergeable, e.g. sketches of postal codes into a sketch of their region. Not thread safe, guarded
+ * by stripe locks of the store.
+ */
+final class WeightSketch {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * Maximal number of longs of a copy, see {@link #copyTo(long[], int)}.
+     */
+    static final int MAX_COPY_SIZE = 2 + BUCKETS;
+
+    private long[] counts = new long[SUB_BUCKETS];
+    private long count;
+    private long minWeightInGrams = Long.MAX_VALUE;
+    private long maxWeightInGrams;
+
+    void add(long weightInGrams, long count) {
+        int bucket = toBucket(weightInGrams);
+        if (bucket >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.min(BUCKETS, Math.max(bucket + 1, counts.length * 2)));
+        }
+        counts[bucket] += count;
+        this.count += count;
+        minWeightInGrams = Math.min(minWeightInGrams, weightInGrams);
+        maxWeightInGrams = Math.max(maxWeightInGrams, weightInGrams);
+    }
+
+    void addAll(WeightSketch other) {
+        if (other.counts.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int bucket = 0; bucket < other.counts.length; bucket++) {
+            counts[bucket] += other.counts[bucket];
+        }
+        count += other.count;
+        minWeightInGrams = Math.min(minWeightInGrams, other.minWeightInGrams);
+        maxWeightInGrams = Math.max(maxWeightInGrams, other.maxWeightInGrams);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @param quantile From 0 to 1, e.g. 0.95 for weight, which 95 % of packages do not exceed.
+     * @return Upper bound of the bucket containing the quantile, 0 if there is no package.
+     */
+    long getWeightInGramsAtQuantile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * quantile));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.max(minWeightInGrams, Math.min(getBucketUpperBound(bucket), maxWeightInGrams));
+            }
+        }
+        return maxWeightInGrams;
+    }
+
+    /**
+     * @return Number of longs copied by {@link #copyTo(long[], int)}.
+     */
+    int getCopySize() {
+        return count == 0 ? 0 : 2 + toBucket(maxWeightInGrams) + 1;
+    }
+
+    /**
+     * Copies the sketch as [lightest weight][heaviest weight][counts of buckets up to the bucket of
+     * the heaviest weight], e.g. into a snapshot.
+     */
+    void copyTo(long[] longs, int offset) {
+        if (count == 0) {
+            return;
+        }
+        longs[offset] = minWeightInGrams;
+        longs[offset + 1] = maxWeightInGrams;
+        System.arraycopy(counts, 0, longs, offset + 2, getCopySize() - 2);
+    }
+
+    /**
+     * Adds a sketch copied by {@link #copyTo(long[], int)}.
+     */
+    void addCopy(long[] longs, int offset, int size) {
+        if (size == 0) {
+            return;
+        }
+        int buckets = size - 2;
+        if (buckets > counts.length) {
+            counts = Arrays.copyOf(counts, buckets);
+        }
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            counts[bucket] += longs[offset + 2 + bucket];
+            count += longs[offset + 2 + bucket];
+        }
+        minWeightInGrams = Math.min(minWeightInGrams, longs[offset]);
+        maxWeightInGrams = Math.max(maxWeightInGrams, longs[offset + 1]);
+    }
+
+    static int toBucket(long weightInGrams) {
+        if (weightInGrams < SUB_BUCKETS) {
+            return (int) weightInGrams;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(weightInGrams);
+        int subBucket = (int) (weightInGrams >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return lowest + width - 1 < 0 ? Long.MAX_VALUE : lowest + width - 1;
+    }
+}
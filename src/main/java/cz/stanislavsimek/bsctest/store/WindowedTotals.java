@@ -0,0 +1,124 @@
+package cz.stanislavsimek.bsctest.store;
+
+/**
+ * Totals per postal code of recent time slots, next to lifetime totals of {@link PackageStore}.
+ * Slots form a ring - the current slot and the previous ones, each with totals of weight, fee and
+ * count per postal code, so that memory is bounded by the number of slots. Running sums over all
+ * the slots of the ring are kept too.
+ *
+ * When the time moves to the next slot, the oldest slot is reclaimed: only postal codes changed in
+ * it (tracked by a {@link ChangeTracker} per slot) are subtracted from the running sums and
+ * cleared, so the cost depends on the packages of the slot, not on all postal codes. A window
+ * query sums the slots of the window, or reads the running sums for the whole ring, packages are
+ * never scanned.
+ *
+ * Fees are priced when packages are added, a new fee table does not change fees of windows. Not
+ * thread safe, guarded by stripe locks of the store (time moves under all of them).
+ */
+final class WindowedTotals {
+
+    private final int slots;
+    private final long slotMillis;
+
+    private final long[][] weightInGrams;
+    private final long[][] feeInCents;
+    private final long[][] packageCount;
+    private final ChangeTracker[] changedPostalCodes;
+
+    private final long[] windowWeightInGrams = new long[PostalCodes.COUNT];
+    private final long[] windowFeeInCents = new long[PostalCodes.COUNT];
+    private final long[] windowPackageCount = new long[PostalCodes.COUNT];
+
+    /**
+     * Number of the current slot since the epoch.
+     */
+    private long currentSlot;
+
+    WindowedTotals(int slots, long slotMillis, long nowMillis) {
+        this.slots = slots;
+        this.slotMillis = slotMillis;
+        this.weightInGrams = new long[slots][PostalCodes.COUNT];
+        this.feeInCents = new long[slots][PostalCodes.COUNT];
+        this.packageCount = new long[slots][PostalCodes.COUNT];
+        this.changedPostalCodes = new ChangeTracker[slots];
+        for (int slot = 0; slot < slots; slot++) {
+            changedPostalCodes[slot] = new ChangeTracker();
+        }
+        this.currentSlot = nowMillis / slotMillis;
+    }
+
+    int getSlots() {
+        return slots;
+    }
+
+    long getSlotMillis() {
+        return slotMillis;
+    }
+
+    /**
+     * Under the stripe lock of the postal code.
+     */
+    void add(int postalCode, long weightInGrams, long feeInCents) {
+        int slot = (int) (currentSlot % slots);
+        this.weightInGrams[slot][postalCode] += weightInGrams;
+        this.feeInCents[slot][postalCode] += feeInCents;
+        packageCount[slot][postalCode]++;
+        changedPostalCodes[slot].mark(postalCode);
+        windowWeightInGrams[postalCode] += weightInGrams;
+        windowFeeInCents[postalCode] += feeInCents;
+        windowPackageCount[postalCode]++;
+    }
+
+    /**
+     * Moves to the slot of the time, reclaiming expired slots. Under all stripe locks.
+     */
+    void advance(long nowMillis) {
+        long newSlot = nowMillis / slotMillis;
+        for (long slot = Math.max(currentSlot + 1, newSlot - slots + 1); slot <= newSlot; slot++) {
+            reclaim((int) (slot % slots));
+        }
+        currentSlot = Math.max(currentSlot, newSlot);
+    }
+
+    private void reclaim(int slot) {
+        long[] slotWeightInGrams = weightInGrams[slot];
+        long[] slotFeeInCents = feeInCents[slot];
+        long[] slotPackageCount = packageCount[slot];
+        changedPostalCodes[slot].drain(postalCode -> {
+            windowWeightInGrams[postalCode] -= slotWeightInGrams[postalCode];
+            windowFeeInCents[postalCode] -= slotFeeInCents[postalCode];
+            windowPackageCount[postalCode] -= slotPackageCount[postalCode];
+            slotWeightInGrams[postalCode] = 0;
+            slotFeeInCents[postalCode] = 0;
+            slotPackageCount[postalCode] = 0;
+        });
+    }
+
+    /**
+     * Under the stripe lock of the postal code.
+     *
+     * @param windowSlots Number of slots of the window, at most {@link #getSlots()} for sliding
+     * window and one less for tumbling window.
+     * @param tumbling False for sliding window - the current slot and the previous ones. True for
+     * tumbling window - completed slots only, so the window changes only when a slot is completed.
+     * @param totals Array of 3 to put weight in grams, fee in cents and package count into.
+     */
+    void read(int postalCode, int windowSlots, boolean tumbling, long[] totals) {
+        if (!tumbling && windowSlots == slots) {
+            totals[0] = windowWeightInGrams[postalCode];
+            totals[1] = windowFeeInCents[postalCode];
+            totals[2] = windowPackageCount[postalCode];
+            return;
+        }
+        totals[0] = 0;
+        totals[1] = 0;
+        totals[2] = 0;
+        long lastSlot = tumbling ? currentSlot - 1 : currentSlot;
+        for (long slot = lastSlot - windowSlots + 1; slot <= lastSlot; slot++) {
+            int ringSlot = (int) (slot % slots);
+            totals[0] += weightInGrams[ringSlot][postalCode];
+            totals[1] += feeInCents[ringSlot][postalCode];
+            totals[2] += packageCount[ringSlot][postalCode];
+        }
+    }
+}
@@ -11,6 +11,7 @@ public class MainTest {
     private final String initialPackages = resourcesPath + "/initialPackages.txt";
     private final String initialFees = resourcesPath + "/initialFees.txt";
     private final String invalidFee = resourcesPath + "/invalidFee.txt";
+    private final String changedFees = resourcesPath + "/changedFees.txt";
     private final static String NL = System.lineSeparator();
 
     @Test
@@ -22,6 +23,21 @@ public class MainTest {
         program.stop();
     }
 
+    @Test
+    public void quitCommandShouldWriteFinalOutput() throws Exception {
+        Program program = new Program();
+        program.setInput("20 78991" + NL + "quit");
+        Thread thread = program.start();
+        assertEquals(false, thread.isAlive());
+        assertTrue(program.getOut().endsWith(""
+                + "Packages:" + NL
+                + "78991 20.000" + NL
+                + NL
+                + "Program finished" + NL
+        ));
+        program.stop();
+    }
+
     @Test
     public void exitCommandShouldntEndTheProgram() throws Exception {
         Program program = new Program();
@@ -137,6 +153,19 @@ public class MainTest {
         program.stop();
     }
 
+    @Test
+    public void tooHeavyPackageInInputShouldShowError() throws Exception {
+        Program program = new Program();
+        program.setInput("1e20 08801");
+        program.start();
+        assertEquals(
+                "ERROR: Package 1.0E+20 kg => 08801 is invalid: net.sf.oval.ConstraintViolation:"
+                + " cz.stanislavsimek.bsctest.model.Package.weightInKg cannot be greater than 1000000.0" + NL,
+                program.getErr()
+        );
+        program.stop();
+    }
+
     @Test
     public void badPostalCodeInInputShouldShowError() throws Exception {
         Program program = new Program();
@@ -218,4 +247,199 @@ public class MainTest {
         program.stop();
     }
 
+    @Test
+    public void addingAnotherPackageWithFeesLoadedShouldAddItsFeeToTotal() throws Exception {
+        Program program = new Program(initialPackages, initialFees);
+        program.setInput("1 08801");
+        program.start();
+        assertEquals(""
+                + "08801 16.960 8.00" + NL
+                + "08079 5.500 2.50" + NL
+                + "09300 3.200 2.00" + NL
+                + "90005 2.000 1.50",
+                program.getData()
+        );
+        program.stop();
+    }
+
+    @Test
+    public void postalCodesWithSameTotalWeightShouldBeSortedByPostalCode() throws Exception {
+        Program program = new Program(initialPackages);
+        program.setInput(""
+                + "2 99999" + NL
+                + "2.000 00001"
+        );
+        program.start();
+        assertEquals(""
+                + "08801 15.960" + NL
+                + "08079 5.500" + NL
+                + "09300 3.200" + NL
+                + "00001 2.000" + NL
+                + "90005 2.000" + NL
+                + "99999 2.000",
+                program.getData()
+        );
+        program.stop();
+    }
+
+    @Test
+    public void everyInvalidLineShouldShowItsError() throws Exception {
+        Program program = new Program();
+        program.setInput(""
+                + "3.2 0930A" + NL
+                + "3.2222 09300" + NL
+                + "3.2 0930B"
+        );
+        program.start();
+        assertEquals(""
+                + "ERROR: Package 3.2 kg => 0930A is invalid: net.sf.oval.ConstraintViolation:"
+                + " five digits expected in postal code" + NL
+                + "ERROR: Package 3.2222 kg => 09300 is invalid: net.sf.oval.ConstraintViolation:"
+                + " cz.stanislavsimek.bsctest.model.Package.weightInKg must have 0 to 2147483647"
+                + " integral and 0 to 3 fractional digits" + NL
+                + "ERROR: Package 3.2 kg => 0930B is invalid: net.sf.oval.ConstraintViolation:"
+                + " five digits expected in postal code" + NL,
+                program.getErr()
+        );
+        program.stop();
+    }
+
+    @Test
+    public void packageWithWeightInOtherFloatFormatShouldBeAccepted() throws Exception {
+        Program program = new Program();
+        program.setInput(""
+                + "1e1 08801" + NL
+                + "3. 08801" + NL
+                + ".5 08801"
+        );
+        program.start();
+        assertEquals("", program.getErr());
+        assertEquals("08801 13.500", program.getData());
+        program.stop();
+    }
+
+    @Test
+    public void reloadCommandShouldPriceAllPackagesByNewFees() throws Exception {
+        System.setProperty("bsctest.keepWeightCounts", "true");
+        try {
+            Program program = new Program(initialPackages, initialFees);
+            program.setInput(""
+                    + "reload " + changedFees + NL
+                    + "1 08801"
+            );
+            program.start();
+            assertEquals("", program.getErr());
+            assertEquals(""
+                    + "08801 16.960 5.00" + NL
+                    + "08079 5.500 3.00" + NL
+                    + "09300 3.200 1.00" + NL
+                    + "90005 2.000 1.00",
+                    program.getData()
+            );
+            program.stop();
+        } finally {
+            System.clearProperty("bsctest.keepWeightCounts");
+        }
+    }
+
+    @Test
+    public void reloadCommandWithoutKeptWeightsShouldKeepFees() throws Exception {
+        Program program = new Program(initialPackages, initialFees);
+        program.setInput("reload " + changedFees);
+        program.start();
+        assertEquals(
+                "ERROR: Fees can not be reloaded, packages can not be priced again without"
+                + " bsctest.keepWeightCounts or bsctest.keepPackages set to true." + NL,
+                program.getErr()
+        );
+        assertEquals(""
+                + "08801 15.960 7.00" + NL
+                + "08079 5.500 2.50" + NL
+                + "09300 3.200 2.00" + NL
+                + "90005 2.000 1.50",
+                program.getData()
+        );
+        program.stop();
+    }
+
+    @Test
+    public void reloadCommandWithBadFileShouldKeepFees() throws Exception {
+        Program program = new Program(initialPackages, initialFees);
+        program.setInput("reload notExistingFees.txt");
+        program.start();
+        assertEquals(
+                "ERROR: Unable to load fees from file notExistingFees.txt"
+                + " : File 'notExistingFees.txt' does not exist" + NL,
+                program.getErr()
+        );
+        assertEquals(""
+                + "08801 15.960 7.00" + NL
+                + "08079 5.500 2.50" + NL
+                + "09300 3.200 2.00" + NL
+                + "90005 2.000 1.50",
+                program.getData()
+        );
+        program.stop();
+    }
+
+    @Test
+    public void packagesEnteredBeforeQuitShouldAllBeLoaded() throws Exception {
+        Program program = new Program(initialPackages);
+        program.setInput(""
+                + "20 78991" + NL
+                + "1 08801" + NL
+                + "quit"
+        );
+        Thread thread = program.start();
+        assertEquals(false, thread.isAlive());
+        assertEquals(""
+                + "78991 20.000" + NL
+                + "08801 16.960" + NL
+                + "08079 5.500" + NL
+                + "09300 3.200" + NL
+                + "90005 2.000",
+                program.getData()
+        );
+        program.stop();
+    }
+
+
+    @Test
+    public void commandShouldBeMatchedByWholeWord() throws Exception {
+        Program program = new Program(initialPackages);
+        program.setInput("topics 2");
+        program.start();
+        assertEquals(
+                "ERROR: First input parameter for package line should be float, is 'topics'." + NL,
+                program.getErr()
+        );
+        assertFalse(program.getOut().contains("Top "));
+        program.stop();
+    }
+
+    @Test
+    public void statsCommandShouldPrintMetrics() throws Exception {
+        Program program = new Program(initialPackages);
+        program.setInput("x 12345" + NL + "stats");
+        program.start();
+        String out = program.getOut();
+        assertTrue(out.contains("Stats:" + NL + "Accepted lines: "));
+        assertTrue(out.contains("Rejected lines: "));
+        assertTrue(out.contains("Reader lag: 0" + NL));
+        assertTrue(out.contains("Report latency: count "));
+        program.stop();
+    }
+
+    @Test
+    public void queryCommandsShouldPrintTotals() throws Exception {
+        Program program = new Program(initialPackages);
+        program.setInput("get 08801" + NL + "get 12345" + NL + "top 2" + NL + "range 08000 08999");
+        program.start();
+        String out = program.getOut();
+        assertTrue(out.contains("Packages of 08801:" + NL + "08801 15.960" + NL));
+        assertTrue(out.contains("Packages of 12345:" + NL + "none" + NL));
+        assertTrue(out.contains("Top 2 packages:" + NL + "08801 15.960" + NL + "08079 5.500" + NL + NL));
+        assertTrue(out.contains("Packages in range 08000 - 08999:" + NL + "08000-08999 21.460" + NL));
+        program.stop();
+    }
 }
@@ -0,0 +1,71 @@
+package cz.stanislavsimek.bsctest.fee;
+
+import cz.stanislavsimek.bsctest.model.Fee;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FeeTableTest {
+
+    @Test
+    public void emptyTableShouldReturnZeroFee() {
+        FeeTable feeTable = FeeTable.compile(new ArrayList<>());
+        assertTrue(feeTable.isEmpty());
+        assertEquals(0, feeTable.getFeeInCents(1000));
+    }
+
+    @Test
+    public void feeShouldBeFeeOfHighestThresholdLessThanOrEqualToWeight() {
+        FeeTable feeTable = FeeTable.compile(Arrays.asList(
+                new Fee(5, 2.5), new Fee(10, 5), new Fee(0.2, 0.5), new Fee(3, 2)
+        ));
+        assertEquals(0, feeTable.getFeeInCents(199));
+        assertEquals(50, feeTable.getFeeInCents(200));
+        assertEquals(50, feeTable.getFeeInCents(2999));
+        assertEquals(200, feeTable.getFeeInCents(3000));
+        assertEquals(250, feeTable.getFeeInCents(9999));
+        assertEquals(500, feeTable.getFeeInCents(10000));
+        assertEquals(500, feeTable.getFeeInCents(1000000000));
+    }
+
+    @Test
+    public void directAndBinarySearchLookupShouldMatchLinearScan() {
+        Random random = new Random(42);
+        for (long maxGrams : new long[]{FeeTable.MAX_DIRECT_LOOKUP_GRAMS - 1, 10000000}) {
+            List<Fee> fees = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                fees.add(new Fee((1 + random.nextInt((int) maxGrams)) / 1000.0, random.nextInt(100000) / 100.0));
+            }
+            fees.add(new Fee(maxGrams / 1000.0, 1));
+            // Fees with equal weights are replaced by the last one when loaded
+            List<Fee> distinctFees = new ArrayList<>();
+            for (Fee fee : fees) {
+                distinctFees.removeIf(f -> f.getWeight().compareTo(fee.getWeight()) == 0);
+                distinctFees.add(fee);
+            }
+            FeeTable feeTable = FeeTable.compile(distinctFees);
+            for (int i = 0; i < 10000; i++) {
+                long weightInGrams = random.nextInt((int) maxGrams * 2);
+                assertEquals(linearScan(distinctFees, weightInGrams), feeTable.getFeeInCents(weightInGrams));
+            }
+        }
+    }
+
+    private static long linearScan(List<Fee> fees, long weightInGrams) {
+        long bestThreshold = -1;
+        long bestFee = 0;
+        for (Fee fee : fees) {
+            long threshold = fee.getWeight().movePointRight(3).longValueExact();
+            if (threshold <= weightInGrams && threshold > bestThreshold) {
+                bestThreshold = threshold;
+                bestFee = fee.getFee().movePointRight(2).longValueExact();
+            }
+        }
+        return bestFee;
+    }
+}
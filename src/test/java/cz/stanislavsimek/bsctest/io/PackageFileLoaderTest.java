@@ -0,0 +1,88 @@
+package cz.stanislavsimek.bsctest.io;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodeTotal;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class PackageFileLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void linesShouldBeReadAcrossWindowBoundaries() throws IOException {
+        File file = folder.newFile();
+        List<String> expected = new ArrayList<>();
+        try (PrintWriter writer = new PrintWriter(file, "US-ASCII")) {
+            for (int i = 0; i < 1000; i++) {
+                String line = i % 7 == 0 ? "" : i + " " + i;
+                expected.add(line);
+                writer.print(line + (i % 3 == 0 ? "\r\n" : "\n"));
+            }
+            writer.print("last");
+            expected.add("last");
+        }
+        List<String> lines = new ArrayList<>();
+        try (FileChannel channel = LineFileReader.open(file)) {
+            LineFileReader.forEachLine(channel, 0, channel.size(),
+                    (buffer, from, to) -> lines.add(LineFileReader.toString(buffer, from, to)), 100);
+        }
+        assertEquals(expected, lines);
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void missingFileShouldNotBeOpened() throws IOException {
+        LineFileReader.open(new File(folder.getRoot(), "missing.txt"));
+    }
+
+    @Test
+    public void parallelLoadShouldMatchSequentialLoad() throws IOException {
+        File file = folder.newFile();
+        Random random = new Random(42);
+        try (PrintWriter writer = new PrintWriter(file, "US-ASCII")) {
+            while (file.length() < 3 * PackageFileLoader.MIN_CHUNK_SIZE) {
+                for (int i = 0; i < 10000; i++) {
+                    int weightInGrams = 1 + random.nextInt(30000);
+                    writer.printf("%d.%03d %05d%n", weightInGrams / 1000, weightInGrams % 1000, random.nextInt(1000));
+                }
+                writer.println("1e1 00001");
+                writer.println();
+                writer.flush();
+            }
+        }
+        FeeTable feeTable = new FeeTable.Builder().put(1000, 100).put(10000, 500).build();
+        PackageStore sequential = new PackageStore(true);
+        sequential.setFeeTable(feeTable);
+        new PackageFileLoader(new ForkJoinPool(1)).load(file, sequential);
+        PackageStore parallel = new PackageStore(true);
+        parallel.setFeeTable(feeTable);
+        new PackageFileLoader(new ForkJoinPool(3)).load(file, parallel);
+
+        List<PostalCodeTotal> expected = sequential.getTotals();
+        List<PostalCodeTotal> actual = parallel.getTotals();
+        assertEquals(1000, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        }
+        assertEquals(sequential.getPackages().size(), parallel.getPackages().size());
+        for (int i = 0; i < sequential.getPackages().size(); i++) {
+            assertEquals(sequential.getPackages().getWeightInGrams(i), parallel.getPackages().getWeightInGrams(i));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package cz.stanislavsimek.bsctest.journal;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.store.PackageSink;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayShouldRecoverTheSameTotals() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+        PackageStore store = new PackageStore(false, true);
+        Random random = new Random(7);
+        long packageCount = 0;
+        for (FsyncPolicy fsyncPolicy : FsyncPolicy.values()) {
+            try (Journal journal = new Journal(file, fsyncPolicy, 10)) {
+                assertEquals(packageCount, journal.replay(new PackageStore(false, true)));
+                PackageSink writer = journal.newWriter(store);
+                for (int i = 0; i < 10000; i++) {
+                    writer.add(random.nextInt(100000), 1 + random.nextInt(100000));
+                }
+                writer.flush();
+                packageCount += 10000;
+                FeeTable feeTable = new FeeTable.Builder().put(1000, 100).put(random.nextInt(5000), 250).build();
+                journal.writeFeeTable(feeTable, store);
+            }
+        }
+        PackageStore recovered = new PackageStore(false, true);
+        try (Journal journal = new Journal(file, FsyncPolicy.ALWAYS, 10)) {
+            assertEquals(30000, journal.replay(recovered));
+        }
+        assertEquals(store.getTotals().toString(), recovered.getTotals().toString());
+    }
+
+    @Test
+    public void tornEndShouldBeCutOff() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+        try (Journal journal = new Journal(file, FsyncPolicy.ALWAYS, 10)) {
+            journal.replay(new PackageStore(false, true));
+            PackageSink writer = journal.newWriter(new PackageStore(false, true));
+            writer.add(1, 1000);
+            writer.flush();
+            writer.add(2, 2000);
+            writer.flush();
+        }
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length - 3);
+        }
+        PackageStore recovered = new PackageStore(false, true);
+        try (Journal journal = new Journal(file, FsyncPolicy.ALWAYS, 10)) {
+            assertEquals(1, journal.replay(recovered));
+            journal.newWriter(recovered).add(3, 3000);
+        }
+        assertEquals("[00001 1.000 kg, 0.00 EUR, 1 packages]", recovered.getTotals().toString());
+    }
+
+    @Test
+    public void changesShouldNotBeAppliedIfNotJournaled() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+        PackageStore store = new PackageStore(false, true);
+        Journal journal = new Journal(file, FsyncPolicy.ALWAYS, 10);
+        PackageSink writer = journal.newWriter(store);
+        writer.add(1, 1000);
+        writer.flush();
+        journal.close();
+
+        writer.add(2, 2000);
+        writer.flush();
+        try {
+            journal.writeFeeTable(new FeeTable.Builder().put(1000, 100).build(), store);
+            fail("Fee table expected not to be journaled");
+        } catch (IOException e) {
+            assertTrue(store.getFeeTable().isEmpty());
+        }
+        assertEquals("[00001 1.000 kg, 0.00 EUR, 1 packages]", store.getTotals().toString());
+    }
+
+    @Test
+    public void replayedPackagesShouldNotBeInWindows() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+        try (Journal journal = new Journal(file, FsyncPolicy.ALWAYS, 10)) {
+            PackageStore store = new PackageStore(false, false, 3, 60000, false);
+            journal.replay(store);
+            PackageSink writer = journal.newWriter(store);
+            writer.add(1, 1000);
+            writer.flush();
+            assertEquals("[00001 1.000 kg, 0.00 EUR, 1 packages]", store.getWindowTotals(3, false).toString());
+        }
+        PackageStore recovered = new PackageStore(false, false, 3, 60000, false);
+        try (Journal journal = new Journal(file, FsyncPolicy.ALWAYS, 10)) {
+            assertEquals(1, journal.replay(recovered));
+        }
+        assertEquals("[00001 1.000 kg, 0.00 EUR, 1 packages]", recovered.getTotals().toString());
+        assertEquals("[]", recovered.getWindowTotals(3, false).toString());
+    }
+
+    @Test
+    public void frameShouldBeCutOffIfNotForced() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+        PackageStore store = new PackageStore(false, true);
+        boolean[] failing = new boolean[1];
+        try (Journal journal = new Journal(file, FsyncPolicy.ALWAYS, 10) {
+            @Override
+            void force() throws IOException {
+                if (failing[0]) {
+                    throw new IOException("Device failed");
+                }
+                super.force();
+            }
+        }) {
+            journal.replay(store);
+            PackageSink writer = journal.newWriter(store);
+            writer.add(1, 1000);
+            writer.flush();
+            failing[0] = true;
+            writer.add(2, 2000);
+            writer.flush();
+            failing[0] = false;
+            writer.add(3, 3000);
+            writer.flush();
+        }
+        PackageStore recovered = new PackageStore(false, true);
+        try (Journal journal = new Journal(file, FsyncPolicy.ALWAYS, 10)) {
+            assertEquals(2, journal.replay(recovered));
+        }
+        assertEquals("[00003 3.000 kg, 0.00 EUR, 1 packages, 00001 1.000 kg, 0.00 EUR, 1 packages]", store.getTotals().toString());
+        assertEquals(store.getTotals().toString(), recovered.getTotals().toString());
+    }
+
+    @Test
+    public void replayFromCutShouldAddOnlyLaterChanges() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+        PackageStore store = new PackageStore(false, true);
+        long cutPosition;
+        try (Journal journal = new Journal(file, FsyncPolicy.ALWAYS, 10)) {
+            journal.replay(store);
+            PackageSink writer = journal.newWriter(store);
+            writer.add(1, 1000);
+            writer.flush();
+            cutPosition = journal.atCut(position -> position);
+            writer.add(2, 2000);
+            writer.flush();
+        }
+        PackageStore recovered = new PackageStore(false, true);
+        recovered.add(1, 1000);
+        try (Journal journal = new Journal(file, FsyncPolicy.ALWAYS, 10)) {
+            assertEquals(1, journal.replay(recovered, cutPosition));
+        }
+        assertEquals(store.getTotals().toString(), recovered.getTotals().toString());
+    }
+}
@@ -0,0 +1,30 @@
+package cz.stanislavsimek.bsctest.metrics;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void everyValueShouldBeInItsBucket() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.toBucket(value);
+            assertTrue(value <= LatencyHistogram.getBucketUpperBound(bucket));
+            assertTrue(bucket == 0 || value > LatencyHistogram.getBucketUpperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void percentilesShouldBeWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        LatencySummary summary = histogram.getSummary();
+        assertEquals(1000, summary.getCount());
+        assertEquals(500500, summary.getMean());
+        assertEquals(1000000, summary.getMax());
+        assertTrue(summary.getP50() >= 500000 && summary.getP50() <= 500000 * 1.125);
+        assertTrue(summary.getP99() >= 990000 && summary.getP99() <= 1000000);
+    }
+}
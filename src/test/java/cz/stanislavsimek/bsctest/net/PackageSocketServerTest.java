@@ -0,0 +1,102 @@
+package cz.stanislavsimek.bsctest.net;
+
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodeTotal;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PackageSocketServerTest {
+
+    private PackageStore store;
+    private PackageSocketServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        store = new PackageStore(false);
+        server = new PackageSocketServer(InetAddress.getLoopbackAddress(), 0, store);
+        server.start();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void linesShouldBeLoadedAndAcknowledged() throws Exception {
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            OutputStream out = client.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+            out.write("3.4 08801\n2 90005\r\n\n3,2 09300\n12.56 08".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            waitForAck(in, "ACK 2 1");
+            out.write("801\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            waitForAck(in, "ACK 3 1");
+        }
+        List<PostalCodeTotal> totals = store.getTotals();
+        assertEquals(2, totals.size());
+        assertEquals("08801", totals.get(0).getPostalCode());
+        assertEquals(15960, totals.get(0).getTotalWeightInGrams());
+        assertEquals(2, totals.get(0).getPackageCount());
+    }
+
+    @Test
+    public void manyConnectionsShouldBeServedAtOnce() throws Exception {
+        Socket[] clients = new Socket[20];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        }
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            lines.append("1 00001\n");
+        }
+        byte[] bytes = lines.toString().getBytes(StandardCharsets.US_ASCII);
+        for (Socket client : clients) {
+            client.getOutputStream().write(bytes);
+            client.getOutputStream().flush();
+        }
+        for (Socket client : clients) {
+            waitForAck(new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII)), "ACK 500 0");
+            client.close();
+        }
+        assertEquals(clients.length * 500, store.getTotals().get(0).getPackageCount());
+    }
+
+    @Test
+    public void tooLongLineShouldBeRejected() throws Exception {
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            OutputStream out = client.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+            StringBuilder line = new StringBuilder();
+            while (line.length() < 2 * PackageSocketServer.BUFFER_SIZE) {
+                line.append("1234567890");
+            }
+            out.write((line + "\n1 00001\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            waitForAck(in, "ACK 1 1");
+        }
+    }
+
+    /**
+     * Lines may come in more reads, each one acknowledged.
+     */
+    private static void waitForAck(BufferedReader in, String expected) throws Exception {
+        String ack;
+        do {
+            ack = in.readLine();
+            assertNotNull("Connection closed before " + expected, ack);
+        } while (!expected.equals(ack));
+    }
+}
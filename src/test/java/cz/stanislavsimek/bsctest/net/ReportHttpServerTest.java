@@ -0,0 +1,88 @@
+package cz.stanislavsimek.bsctest.net;
+
+import cz.stanislavsimek.bsctest.report.ReportFormatter;
+import cz.stanislavsimek.bsctest.report.ReportIndex;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ReportHttpServerTest {
+
+    private PackageStore store;
+    private ReportIndex reportIndex;
+    private ReportHttpServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Before
+    public void startServer() throws Exception {
+        store = new PackageStore(false);
+        reportIndex = new ReportIndex(store);
+        server = new ReportHttpServer(InetAddress.getLoopbackAddress(), 0, reportIndex::publish, store);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void reportShouldBeServedOncePerChange() throws Exception {
+        store.add(8801, 3400);
+        store.add(90005, 2000);
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            responses.add(client.sendAsync(request("/report").build(), HttpResponse.BodyHandlers.ofString()));
+        }
+        CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).join();
+        String expected = ReportFormatter.format(reportIndex.getSnapshot()) + System.lineSeparator();
+        String etag = null;
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            assertEquals(200, response.get().statusCode());
+            assertEquals(expected, response.get().body());
+            etag = response.get().headers().firstValue("ETag").orElse(null);
+        }
+        assertEquals("\"" + reportIndex.getSnapshot().getEpoch() + "\"", etag);
+
+        HttpResponse<String> notModified = client.send(
+                request("/report").header("If-None-Match", etag).build(), HttpResponse.BodyHandlers.ofString()
+        );
+        assertEquals(304, notModified.statusCode());
+
+        store.add(8801, 1000);
+        HttpResponse<String> changed = client.send(
+                request("/report").header("If-None-Match", etag).build(), HttpResponse.BodyHandlers.ofString()
+        );
+        assertEquals(200, changed.statusCode());
+        assertTrue(changed.body().startsWith("08801 4.400"));
+    }
+
+    @Test
+    public void postalCodeShouldBeLookedUp() throws Exception {
+        store.add(8801, 3400);
+        HttpResponse<String> found = client.send(request("/postal-codes/08801").build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, found.statusCode());
+        assertEquals("08801 3.400" + System.lineSeparator(), found.body());
+        assertEquals(404, client.send(request("/postal-codes/12345").build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+        assertEquals(400, client.send(request("/postal-codes/1234x").build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+        assertEquals(405, client.send(
+                request("/report").POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString()
+        ).statusCode());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path));
+    }
+}
@@ -0,0 +1,68 @@
+package cz.stanislavsimek.bsctest.parser;
+
+import cz.stanislavsimek.bsctest.model.Fee;
+import cz.stanislavsimek.bsctest.model.Package;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LineParserTest {
+
+    private final LineParser parser = new LineParser();
+
+    @Test
+    public void canonicalPackageLinesShouldBeParsed() {
+        assertTrue(parser.parsePackageLine("12.56 08801"));
+        assertEquals(12560, parser.getWeightInGrams());
+        assertEquals(8801, parser.getPostalCode());
+        assertTrue(parser.parsePackageLine("2 00000"));
+        assertEquals(2000, parser.getWeightInGrams());
+        assertEquals(0, parser.getPostalCode());
+        assertTrue(parser.parsePackageLine("0.001 99999"));
+        assertEquals(1, parser.getWeightInGrams());
+        assertEquals(99999, parser.getPostalCode());
+        assertTrue(parser.parsePackageLine("1000000 99999"));
+        assertEquals(Package.MAX_WEIGHT_IN_GRAMS, parser.getWeightInGrams());
+    }
+
+    @Test
+    public void otherPackageLinesShouldNotBeParsed() {
+        String[] lines = {
+            "", "exit", "3,2 09300", "3.2222 09300", "3.2 0930A", "3.2 093000", "3.2 0930",
+            "0 09300", "0.000 09300", "-1 09300", "3. 09300", ".5 09300", "1e3 09300", " 3 09300",
+            "3 09300 ", "3  09300", "3\t09300", "1234567890123 09300", "1000000.001 09300"
+        };
+        for (String line : lines) {
+            assertFalse(line, parser.parsePackageLine(line));
+        }
+    }
+
+    @Test
+    public void packageLineShouldBeParsedFromBytes() {
+        byte[] buffer = "3.4 08801\n2 90005\n".getBytes(StandardCharsets.US_ASCII);
+        assertTrue(parser.parsePackageLine(buffer, 10, 17));
+        assertEquals(2000, parser.getWeightInGrams());
+        assertEquals(90005, parser.getPostalCode());
+    }
+
+    @Test
+    public void feeLinesShouldBeParsed() {
+        assertTrue(parser.parseFeeLine("0.5 0.70"));
+        assertEquals(500, parser.getWeightInGrams());
+        assertEquals(70, parser.getFeeInCents());
+        assertTrue(parser.parseFeeLine("10 5"));
+        assertEquals(10000, parser.getWeightInGrams());
+        assertEquals(500, parser.getFeeInCents());
+        assertTrue(parser.parseFeeLine("1 0.00"));
+        assertEquals(0, parser.getFeeInCents());
+        assertFalse(parser.parseFeeLine("10 5.00 EUR"));
+        assertFalse(parser.parseFeeLine("10 5.001"));
+        assertFalse(parser.parseFeeLine("0 5.00"));
+        assertTrue(parser.parseFeeLine("1000000 1000000.00"));
+        assertEquals(Fee.MAX_FEE_IN_CENTS, parser.getFeeInCents());
+        assertFalse(parser.parseFeeLine("1000000.001 5.00"));
+        assertFalse(parser.parseFeeLine("10 1000000.01"));
+    }
+}
@@ -0,0 +1,94 @@
+package cz.stanislavsimek.bsctest.pipeline;
+
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodeTotal;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class InputPipelineTest {
+
+    private static final int LINES = 100000;
+
+    @Test
+    public void allLinesBeforeQuitShouldBeProcessed() throws Exception {
+        PackageStore store = new PackageStore(false);
+        List<Long> countsSeenByCommands = new ArrayList<>();
+        InputPipeline pipeline = new InputPipeline(input(LINES, "count"), store, line -> {
+            if (!"count".equals(line)) {
+                return false;
+            }
+            List<PostalCodeTotal> totals = store.getTotals();
+            countsSeenByCommands.add(totals.isEmpty() ? 0 : totals.get(0).getPackageCount());
+            return true;
+        }, 64, Backpressure.BLOCK);
+        pipeline.start();
+        pipeline.awaitQuit();
+        pipeline.awaitDrained();
+
+        assertEquals(LINES, store.getTotals().get(0).getPackageCount());
+        assertEquals(1, countsSeenByCommands.size());
+        assertEquals(LINES / 2, (long) countsSeenByCommands.get(0));
+        assertEquals(0, pipeline.getShedLines() + pipeline.getShedPackages());
+    }
+
+    @Test
+    public void fullPipelineShouldShedWhenConfigured() throws Exception {
+        AtomicLong aggregated = new AtomicLong();
+        InputPipeline pipeline = new InputPipeline(input(LINES, null), (postalCode, weightInGrams) -> {
+            if (aggregated.incrementAndGet() % 100 == 0) {
+                Thread.yield();
+            }
+        }, line -> false, 4, Backpressure.SHED);
+        pipeline.start();
+        pipeline.awaitQuit();
+        pipeline.awaitDrained();
+
+        assertEquals(LINES, aggregated.get() + pipeline.getShedLines() + pipeline.getShedPackages());
+    }
+
+    @Test
+    public void failingLineShouldNotStopProcessing() throws Exception {
+        PackageStore store = new PackageStore(false);
+        String input = "2 00001\nfail\n2 00002\n1000001 00001\n3 00001\nquit\n";
+        InputPipeline pipeline = new InputPipeline(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)),
+                (postalCode, weightInGrams) -> {
+                    if (postalCode == 2) {
+                        throw new IllegalStateException("Postal code 2 fails");
+                    }
+                    store.add(postalCode, weightInGrams);
+                },
+                line -> {
+                    throw new IllegalStateException("Command fails");
+                },
+                64, Backpressure.BLOCK
+        );
+        pipeline.start();
+        pipeline.awaitQuit();
+        pipeline.awaitDrained();
+
+        assertEquals("[00001 5.000 kg, 0.00 EUR, 2 packages]", store.getTotals().toString());
+    }
+
+    /**
+     * @return Package lines, with the command in the middle, ended by quit.
+     */
+    private static ByteArrayInputStream input(int lines, String command) {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            if (i == lines / 2 && command != null) {
+                input.append(command).append('\n');
+            }
+            input.append("1 00001\n");
+        }
+        input.append("quit\n");
+        return new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,35 @@
+package cz.stanislavsimek.bsctest.report;
+
+import cz.stanislavsimek.bsctest.store.PackageStore;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DeltaReportTest {
+
+    @Test
+    public void deltaShouldContainOnlyChangedPostalCodes() {
+        PackageStore store = new PackageStore(false);
+        DeltaReport deltaReport = new DeltaReport(store);
+        store.add(1, 1000);
+        store.add(2, 2000);
+        deltaReport.reset();
+        assertEquals("", deltaReport.getOutput(false));
+
+        store.add(3, 500);
+        store.add(1, 1500);
+        String separator = System.lineSeparator();
+        assertEquals("00001 2.500" + separator + "00003 0.500", deltaReport.getOutput(false));
+        assertEquals("", deltaReport.getOutput(false));
+    }
+
+    @Test
+    public void firstDeltaShouldContainAllPostalCodes() {
+        PackageStore store = new PackageStore(false);
+        store.add(4, 1000);
+        store.add(2, 1000);
+        DeltaReport deltaReport = new DeltaReport(store);
+        String separator = System.lineSeparator();
+        assertEquals("00002 1.000 0.00" + separator + "00004 1.000 0.00", deltaReport.getOutput(true));
+    }
+}
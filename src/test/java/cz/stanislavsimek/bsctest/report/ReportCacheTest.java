@@ -0,0 +1,60 @@
+package cz.stanislavsimek.bsctest.report;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ReportCacheTest {
+
+    @Test
+    public void outputShouldBeRenderedAgainOnlyAfterChange() throws Exception {
+        PackageStore store = new PackageStore(false, true);
+        ReportIndex reportIndex = new ReportIndex(store);
+        ReportCache reportCache = new ReportCache(store, reportIndex);
+        assertEquals("", reportCache.getOutput());
+
+        long version = store.getVersion();
+        for (int i = 0; i < 10000; i++) {
+            store.add(i * 37 % 5000, 100 + i % 13 * 250);
+        }
+        assertTrue(store.getVersion() > version);
+        String output = reportCache.getOutput();
+        assertEquals(ReportFormatter.format(reportIndex.publish()), output);
+        assertSame(output, reportCache.getOutput());
+
+        version = store.getVersion();
+        store.add(42, 100000);
+        assertTrue(store.getVersion() > version);
+        String changedOutput = reportCache.getOutput();
+        assertTrue(changedOutput.startsWith("00042 "));
+        assertEquals(ReportFormatter.format(reportIndex.publish()), changedOutput);
+
+        version = store.getVersion();
+        store.setFeeTable(new FeeTable.Builder().put(1000, 300).put(5000, 700).build());
+        assertTrue(store.getVersion() > version);
+        String outputWithFees = reportCache.getOutput();
+        assertEquals(ReportFormatter.format(reportIndex.publish()), outputWithFees);
+
+        StringWriter writer = new StringWriter();
+        assertEquals(reportIndex.getSnapshot().size(), reportCache.write(writer));
+        assertEquals(outputWithFees + System.lineSeparator(), writer.toString());
+    }
+
+    @Test
+    public void rowsShouldHaveWeightQuantiles() {
+        PackageStore store = new PackageStore(false, false, 0, 0, true);
+        ReportCache reportCache = new ReportCache(store, new ReportIndex(store), true);
+        store.add(8801, 3400);
+        store.add(8079, 5500);
+        assertEquals("08079 5.500 p50 5.500 p95 5.500 p99 5.500" + System.lineSeparator()
+                + "08801 3.400 p50 3.400 p95 3.400 p99 3.400", reportCache.getOutput());
+
+        store.add(8801, 12560);
+        assertEquals("08801 15.960 p50 3.583 p95 12.560 p99 12.560" + System.lineSeparator()
+                + "08079 5.500 p50 5.500 p95 5.500 p99 5.500", reportCache.getOutput());
+    }
+}
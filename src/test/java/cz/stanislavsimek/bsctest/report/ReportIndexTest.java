@@ -0,0 +1,70 @@
+package cz.stanislavsimek.bsctest.report;
+
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodeTotal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ReportIndexTest {
+
+    @Test
+    public void refreshedIndexShouldMatchSortedTotals() {
+        PackageStore store = new PackageStore(false);
+        ReportIndex reportIndex = new ReportIndex(store);
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 5000; i++) {
+                store.add(random.nextInt(2000), 1 + random.nextInt(3) * 1000);
+            }
+            reportIndex.refresh();
+            List<PostalCodeTotal> expected = store.getTotals();
+            List<String> actual = new ArrayList<>();
+            reportIndex.forEachRow(Integer.MAX_VALUE, (postalCode, weight, fee, count) ->
+                    actual.add(new PostalCodeTotal(postalCode, weight, fee, count).toString()));
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).toString(), actual.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void firstRowsShouldBeTopPostalCodes() {
+        PackageStore store = new PackageStore(false);
+        store.add(5, 1000);
+        store.add(7, 3000);
+        ReportIndex reportIndex = new ReportIndex(store);
+        store.add(9, 2000);
+        store.add(5, 2500);
+        reportIndex.refresh();
+        List<Integer> postalCodes = new ArrayList<>();
+        reportIndex.forEachRow(2, (postalCode, weight, fee, count) -> postalCodes.add(postalCode));
+        assertEquals(2, postalCodes.size());
+        assertEquals(5, (int) postalCodes.get(0));
+        assertEquals(7, (int) postalCodes.get(1));
+        assertEquals(3, reportIndex.size());
+    }
+
+    @Test
+    public void publishedSnapshotShouldNotChangeWithStore() {
+        PackageStore store = new PackageStore(false);
+        ReportIndex reportIndex = new ReportIndex(store);
+        store.add(5, 1000);
+        ReportSnapshot snapshot = reportIndex.publish();
+        assertSame(snapshot, reportIndex.publish());
+
+        store.add(7, 3000);
+        store.add(5, 500);
+        assertEquals(1, snapshot.size());
+        assertEquals("00005 1.000", ReportFormatter.format(snapshot));
+        ReportSnapshot newSnapshot = reportIndex.publish();
+        assertTrue(newSnapshot.getEpoch() > snapshot.getEpoch());
+        assertSame(newSnapshot, reportIndex.getSnapshot());
+        assertEquals("00007 3.000" + System.lineSeparator() + "00005 1.500", ReportFormatter.format(newSnapshot));
+    }
+}
@@ -0,0 +1,53 @@
+package cz.stanislavsimek.bsctest.report;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodeTotal;
+import cz.stanislavsimek.bsctest.store.PostalCodes;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Locale;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ReportWriterTest {
+
+    @Test
+    public void writtenRowsShouldBeInReportOrderAcrossChunks() throws Exception {
+        PackageStore store = new PackageStore(false);
+        store.setFeeTable(new FeeTable.Builder().put(1000, 150).put(5000, 399).build());
+        for (int i = 0; i < 200000; i++) {
+            store.add(i * 7919 % PostalCodes.COUNT, 1 + i % 9973);
+        }
+        ReportSnapshot snapshot = new ReportIndex(store).publish();
+        assertTrue(snapshot.size() > 3 * ReportWriter.CHUNK_ROWS);
+
+        StringBuilder expected = new StringBuilder();
+        for (PostalCodeTotal total : store.getTotals()) {
+            expected
+                    .append(PostalCodes.toString(total.getPostalCodeIndex()))
+                    .append(String.format(Locale.ROOT, " %.3f", BigDecimal.valueOf(total.getTotalWeightInGrams(), 3)))
+                    .append(String.format(Locale.ROOT, " %.2f", BigDecimal.valueOf(total.getTotalFeeInCents(), 2)))
+                    .append(System.lineSeparator());
+        }
+        StringWriter output = new StringWriter();
+        ReportWriter.write(snapshot, output);
+        assertEquals(expected.toString(), output.toString());
+        assertEquals(expected.toString().trim(), ReportFormatter.format(snapshot));
+    }
+
+    @Test
+    public void fixedDecimalsShouldMatchBigDecimal() {
+        long[] values = {0, 1, 9, 10, 999, 1000, 1001, 123456789, -1, -1000, -1234, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            StringBuilder weight = new StringBuilder();
+            ReportFormatter.appendFixed(weight, value, 1000);
+            assertEquals(BigDecimal.valueOf(value, 3).toPlainString(), weight.toString());
+            StringBuilder fee = new StringBuilder();
+            ReportFormatter.appendFixed(fee, value, 100);
+            assertEquals(BigDecimal.valueOf(value, 2).toPlainString(), fee.toString());
+        }
+    }
+}
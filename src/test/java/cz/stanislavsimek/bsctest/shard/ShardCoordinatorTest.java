@@ -0,0 +1,80 @@
+package cz.stanislavsimek.bsctest.shard;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.report.ReportFormatter;
+import cz.stanislavsimek.bsctest.report.ReportIndex;
+import cz.stanislavsimek.bsctest.report.ReportSnapshot;
+import cz.stanislavsimek.bsctest.store.PackageStore;
+import cz.stanislavsimek.bsctest.store.PostalCodes;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ShardCoordinatorTest {
+
+    @Test
+    public void mergedReportShouldEqualReportOfSingleStore() throws Exception {
+        PackageStore store = new PackageStore(false, true);
+        ReportIndex reportIndex = new ReportIndex(store);
+        try (ShardCoordinator coordinator = ShardCoordinator.start(3, true)) {
+            assertEquals("", ReportFormatter.format(coordinator.collect()));
+
+            FeeTable cheap = new FeeTable.Builder().put(1000, 100).build();
+            store.setFeeTable(cheap);
+            coordinator.setFeeTable(cheap);
+            for (int i = 0; i < 100000; i++) {
+                int postalCode = i * 7919 % PostalCodes.COUNT % 20000;
+                store.add(postalCode, 1 + i % 9973);
+                coordinator.add(postalCode, 1 + i % 9973);
+            }
+            coordinator.flush();
+            ReportSnapshot collected = coordinator.collect();
+            assertEquals(ReportFormatter.format(reportIndex.publish()), ReportFormatter.format(collected));
+            assertSame(collected, coordinator.collect());
+
+            FeeTable expensive = new FeeTable.Builder().put(1000, 300).put(5000, 700).build();
+            store.setFeeTable(expensive);
+            coordinator.setFeeTable(expensive);
+            store.add(12345, 2500);
+            coordinator.add(12345, 2500);
+            ReportSnapshot changed = coordinator.collect();
+            assertTrue(changed.getEpoch() > collected.getEpoch());
+            assertEquals(ReportFormatter.format(reportIndex.publish()), ReportFormatter.format(changed));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void collectShouldNotWaitForPackagesBeingAdded() throws Exception {
+        try (ShardCoordinator coordinator = ShardCoordinator.start(2, false)) {
+            int packageCount = 2000000;
+            Thread adder = new Thread(() -> {
+                for (int i = 0; i < packageCount; i++) {
+                    coordinator.add(i % PostalCodes.COUNT, 1 + i % 9973);
+                }
+            });
+            adder.start();
+            long previousCount = 0;
+            int collects = 0;
+            while (adder.isAlive()) {
+                long count = countPackages(coordinator.collect());
+                assertTrue(count >= previousCount && count <= packageCount);
+                previousCount = count;
+                collects++;
+            }
+            adder.join();
+            coordinator.flush();
+            assertEquals(packageCount, countPackages(coordinator.collect()));
+            assertTrue(collects > 0);
+        }
+    }
+
+    private static long countPackages(ReportSnapshot snapshot) {
+        AtomicLong count = new AtomicLong();
+        snapshot.forEachRow(snapshot.size(), (postalCode, totalWeightInGrams, totalFeeInCents, packageCount) ->
+                count.addAndGet(packageCount)
+        );
+        return count.get();
+    }
+}
@@ -0,0 +1,199 @@
+package cz.stanislavsimek.bsctest.store;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+import cz.stanislavsimek.bsctest.model.Fee;
+import cz.stanislavsimek.bsctest.model.Package;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PackageStoreTest {
+
+    private static final int THREADS = 4;
+    private static final int PACKAGES_PER_THREAD = 200000;
+
+    @Test
+    public void packagesAddedConcurrentlyShouldAllBeCounted() throws Exception {
+        assertConcurrentlyAddedPackagesCounted(new PackageStore(false, true));
+    }
+
+    @Test
+    public void packagesAddedConcurrentlyShouldAllBeKeptAndPricedAgain() throws Exception {
+        PackageStore store = new PackageStore(true, false);
+        assertConcurrentlyAddedPackagesCounted(store);
+        assertEquals(THREADS * PACKAGES_PER_THREAD, store.getPackages().size());
+    }
+
+    private static void assertConcurrentlyAddedPackagesCounted(PackageStore store) throws Exception {
+        FeeTable cheap = new FeeTable.Builder().put(1000, 100).build();
+        FeeTable expensive = new FeeTable.Builder().put(1000, 300).put(5000, 700).build();
+        store.setFeeTable(cheap);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < PACKAGES_PER_THREAD; i++) {
+                    store.add((i * THREADS + offset) % 1000, 1000 + i % 7 * 1000);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (int i = 0; i < 20; i++) {
+            store.setFeeTable(i % 2 == 0 ? expensive : cheap);
+            for (PostalCodeTotal total : store.getTotals()) {
+                assertTrue(total.getTotalWeightInGrams() >= 1000 * total.getPackageCount());
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        store.setFeeTable(expensive);
+
+        List<PostalCodeTotal> totals = store.getTotals();
+        assertEquals(1000, totals.size());
+        long packageCount = 0;
+        long totalWeightInGrams = 0;
+        long totalFeeInCents = 0;
+        for (PostalCodeTotal total : totals) {
+            packageCount += total.getPackageCount();
+            totalWeightInGrams += total.getTotalWeightInGrams();
+            totalFeeInCents += total.getTotalFeeInCents();
+        }
+        long expectedWeightInGrams = 0;
+        long expectedFeeInCents = 0;
+        for (int i = 0; i < PACKAGES_PER_THREAD; i++) {
+            long weightInGrams = 1000 + i % 7 * 1000;
+            expectedWeightInGrams += THREADS * weightInGrams;
+            expectedFeeInCents += THREADS * expensive.getFeeInCents(weightInGrams);
+        }
+        assertEquals(THREADS * PACKAGES_PER_THREAD, packageCount);
+        assertEquals(expectedWeightInGrams, totalWeightInGrams);
+        assertEquals(expectedFeeInCents, totalFeeInCents);
+    }
+
+    @Test
+    public void regionTotalsShouldBeSumsOfPostalCodes() {
+        PackageStore store = new PackageStore(false, true);
+        store.setFeeTable(new FeeTable.Builder().put(1000, 100).build());
+        for (int i = 0; i < 10000; i++) {
+            store.add(i * 37 % PostalCodes.COUNT, 500 + i % 11 * 300);
+        }
+        store.setFeeTable(new FeeTable.Builder().put(1000, 300).put(2000, 700).build());
+        store.add(12345, 2500);
+
+        long[] totals = new long[3];
+        for (int digits = 1; digits <= 3; digits++) {
+            long[][] expected = new long[PackageStore.getRegionCount(digits)][3];
+            for (PostalCodeTotal total : store.getTotals()) {
+                long[] region = expected[total.getPostalCodeIndex() / (PostalCodes.COUNT / expected.length)];
+                region[0] += total.getTotalWeightInGrams();
+                region[1] += total.getTotalFeeInCents();
+                region[2] += total.getPackageCount();
+            }
+            for (int prefix = 0; prefix < expected.length; prefix++) {
+                assertEquals(expected[prefix][2] > 0, store.readRegionTotals(digits, prefix, totals));
+                assertArrayEquals(expected[prefix], totals);
+            }
+        }
+    }
+
+    @Test
+    public void rangeTotalsShouldBeSumsOfPostalCodes() {
+        PackageStore store = new PackageStore(false, true);
+        store.setFeeTable(new FeeTable.Builder().put(1000, 100).build());
+        for (int i = 0; i < 10000; i++) {
+            store.add(i * 37 % PostalCodes.COUNT, 500 + i % 11 * 300);
+        }
+        store.setFeeTable(new FeeTable.Builder().put(1000, 300).put(2000, 700).build());
+        store.add(PostalCodes.COUNT - 1, 2500);
+
+        int[][] ranges = {{0, 0}, {0, PostalCodes.COUNT - 1}, {37, 37}, {38, 73}, {12345, 67890}, {99999, 99999}};
+        long[] totals = new long[3];
+        for (int[] range : ranges) {
+            long[] expected = new long[3];
+            for (PostalCodeTotal total : store.getTotals()) {
+                if (total.getPostalCodeIndex() >= range[0] && total.getPostalCodeIndex() <= range[1]) {
+                    expected[0] += total.getTotalWeightInGrams();
+                    expected[1] += total.getTotalFeeInCents();
+                    expected[2] += total.getPackageCount();
+                }
+            }
+            assertEquals(expected[2] > 0, store.readRangeTotals(range[0], range[1], totals));
+            assertArrayEquals(expected, totals);
+        }
+    }
+
+    @Test
+    public void packageExceedingMaximalTotalsShouldBeRejected() {
+        PackageStore store = new PackageStore(false, true);
+        long maxPackages = PackageStore.MAX_TOTAL / Package.MAX_WEIGHT_IN_GRAMS;
+        for (long i = 0; i < maxPackages; i++) {
+            store.add(8801, Package.MAX_WEIGHT_IN_GRAMS);
+        }
+        try {
+            store.add(8801, Package.MAX_WEIGHT_IN_GRAMS);
+            fail("Totals exceeding the maximum expected to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(
+                    "Totals of postal code 08801 would exceed " + PackageStore.MAX_TOTAL + " grams or cents",
+                    e.getMessage()
+            );
+        }
+        long[] totals = new long[3];
+        store.readTotals(8801, totals);
+        assertArrayEquals(new long[]{maxPackages * Package.MAX_WEIGHT_IN_GRAMS, 0, maxPackages}, totals);
+
+        PackageStore lightPackages = new PackageStore(false, true);
+        for (int i = 0; i < 1000000; i++) {
+            lightPackages.add(8801, 1);
+        }
+        try {
+            lightPackages.setFeeTable(new FeeTable.Builder().put(1, Fee.MAX_FEE_IN_CENTS).build());
+            fail("Fees exceeding the maximum expected to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(lightPackages.getFeeTable().isEmpty());
+        }
+    }
+
+    @Test
+    public void packedPackageShouldKeepMaximalWeight() {
+        long packed = PackageList.pack(PostalCodes.COUNT - 1, Package.MAX_WEIGHT_IN_GRAMS);
+        assertEquals(PostalCodes.COUNT - 1, PackageList.unpackPostalCode(packed));
+        assertEquals(Package.MAX_WEIGHT_IN_GRAMS, PackageList.unpackWeightInGrams(packed));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void packingShouldRejectWeightOutOfRange() {
+        PackageList.pack(1, 1L << 47);
+    }
+
+    @Test
+    public void packagesShouldBePricedAgainOnlyFromKeptPackagesOrWeights() {
+        PackageStore packages = new PackageStore(true, false);
+        PackageStore weightCounts = new PackageStore(false, true);
+        PackageStore totalsOnly = new PackageStore(false, false);
+        for (PackageStore store : List.of(packages, weightCounts, totalsOnly)) {
+            store.setFeeTable(new FeeTable.Builder().put(1000, 100).build());
+            for (int i = 0; i < 1000; i++) {
+                store.add(i % 7, 1 + i * 13);
+            }
+        }
+        assertTrue(packages.canPriceAgain());
+        assertTrue(weightCounts.canPriceAgain());
+        assertFalse(totalsOnly.canPriceAgain());
+
+        FeeTable feeTable = new FeeTable.Builder().put(1000, 300).put(5000, 700).build();
+        packages.setFeeTable(feeTable);
+        weightCounts.setFeeTable(feeTable);
+        assertEquals(weightCounts.getTotals().toString(), packages.getTotals().toString());
+        try {
+            totalsOnly.setFeeTable(feeTable);
+            fail("Packages without kept weights expected not to be priced again");
+        } catch (IllegalStateException e) {
+            assertEquals(100, totalsOnly.getFeeTable().getFeeInCents(1000));
+        }
+    }
+}
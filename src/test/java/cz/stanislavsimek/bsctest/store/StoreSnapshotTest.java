@@ -0,0 +1,87 @@
+package cz.stanislavsimek.bsctest.store;
+
+import cz.stanislavsimek.bsctest.fee.FeeTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class StoreSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restoredStoreShouldBeTheSame() throws IOException {
+        PackageStore store = new PackageStore(true, true, 0, 0, true);
+        store.setFeeTable(new FeeTable.Builder().put(1000, 150).put(3000, 400).build());
+        Random random = new Random(3);
+        for (int i = 0; i < 20000; i++) {
+            store.add(random.nextInt(3000), 1 + random.nextInt(5000));
+        }
+        File file = new File(folder.getRoot(), "snapshot");
+        StoreSnapshot.capture(store, 42, 1234, 7).writeTo(file);
+
+        StoreSnapshot snapshot = StoreSnapshot.read(file);
+        assertEquals(42, snapshot.getJournalId());
+        assertEquals(1234, snapshot.getJournalPosition());
+        assertEquals(7, snapshot.getSourceFingerprint());
+        PackageStore restored = new PackageStore(true, true, 0, 0, true);
+        snapshot.restoreInto(restored);
+        assertEquals(store.getTotals().toString(), restored.getTotals().toString());
+        assertEquals(store.getPackages().size(), restored.getPackages().size());
+        double[] quantiles = {0.5, 0.95, 0.99};
+        long[] expected = new long[quantiles.length];
+        long[] actual = new long[quantiles.length];
+        for (int postalCode = 0; postalCode < 3000; postalCode += 7) {
+            assertEquals(
+                    store.readWeightQuantiles(postalCode, quantiles, expected),
+                    restored.readWeightQuantiles(postalCode, quantiles, actual)
+            );
+            assertArrayEquals(expected, actual);
+        }
+
+        // Fees are priced again from restored weights
+        FeeTable feeTable = new FeeTable.Builder().put(2000, 300).build();
+        store.setFeeTable(feeTable);
+        restored.setFeeTable(feeTable);
+        assertEquals(store.getTotals().toString(), restored.getTotals().toString());
+    }
+
+    @Test
+    public void snapshotWithoutWeightsShouldNotBeRestoredIntoStoreKeepingThem() throws IOException {
+        PackageStore store = new PackageStore(false);
+        store.add(1, 1000);
+        File file = new File(folder.getRoot(), "snapshot");
+        StoreSnapshot.capture(store, 0, 0, 0).writeTo(file);
+
+        StoreSnapshot snapshot = StoreSnapshot.read(file);
+        assertFalse(snapshot.hasWeightCounts());
+        assertFalse(snapshot.hasWeightSketches());
+        try {
+            snapshot.restoreInto(new PackageStore(false, true));
+            fail("Snapshot without weight counts expected to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("The snapshot does not contain what the store keeps", e.getMessage());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void damagedSnapshotShouldBeRejected() throws IOException {
+        PackageStore store = new PackageStore(false);
+        store.add(1, 1000);
+        File file = new File(folder.getRoot(), "snapshot");
+        StoreSnapshot.capture(store, 0, 0, 0).writeTo(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(StoreSnapshot.HEADER_SIZE + 12);
+            raf.write(0x55);
+        }
+        StoreSnapshot.read(file);
+    }
+}
@@ -0,0 +1,98 @@
+package cz.stanislavsimek.bsctest.store;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WeightSketchTest {
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    @Test
+    public void quantilesShouldBeAtMostOneBucketAboveRealWeights() {
+        WeightSketch sketch = new WeightSketch();
+        for (long weightInGrams = 1; weightInGrams <= 100000; weightInGrams++) {
+            sketch.add(weightInGrams, 1);
+        }
+        assertEquals(100000, sketch.getCount());
+        for (double quantile : QUANTILES) {
+            long realWeightInGrams = (long) Math.ceil(100000 * quantile);
+            long weightInGrams = sketch.getWeightInGramsAtQuantile(quantile);
+            assertTrue(weightInGrams >= realWeightInGrams);
+            assertTrue(weightInGrams <= realWeightInGrams * 1.125);
+        }
+        assertEquals(1, sketch.getWeightInGramsAtQuantile(0));
+        assertEquals(100000, sketch.getWeightInGramsAtQuantile(1));
+    }
+
+    @Test
+    public void quantilesShouldBeWithinLightestAndHeaviestPackage() {
+        WeightSketch sketch = new WeightSketch();
+        assertEquals(0, sketch.getWeightInGramsAtQuantile(0.5));
+        sketch.add(3400, 2);
+        assertEquals(3400, sketch.getWeightInGramsAtQuantile(0.5));
+        assertEquals(3400, sketch.getWeightInGramsAtQuantile(0.99));
+    }
+
+    @Test
+    public void mergedSketchShouldEqualSketchOfAllWeights() {
+        WeightSketch all = new WeightSketch();
+        WeightSketch light = new WeightSketch();
+        WeightSketch heavy = new WeightSketch();
+        for (long weightInGrams = 100; weightInGrams < 50000; weightInGrams += 7) {
+            all.add(weightInGrams, 1);
+            (weightInGrams < 2000 ? light : heavy).add(weightInGrams, 1);
+        }
+        light.addAll(heavy);
+        assertEquals(all.getCount(), light.getCount());
+        for (double quantile : QUANTILES) {
+            assertEquals(all.getWeightInGramsAtQuantile(quantile), light.getWeightInGramsAtQuantile(quantile));
+        }
+    }
+
+    @Test
+    public void storeShouldMergeSketchesOfRegion() {
+        PackageStore store = new PackageStore(false, false, 0, 0, true);
+        store.add(8801, 3400);
+        store.add(8801, 12560);
+        store.add(8079, 5500);
+        store.add(9300, 3200);
+
+        long[] weightsInGrams = new long[QUANTILES.length];
+        assertTrue(store.readWeightQuantiles(8079, QUANTILES, weightsInGrams));
+        assertArrayEquals(new long[]{5500, 5500, 5500}, weightsInGrams);
+        assertFalse(store.readWeightQuantiles(12345, QUANTILES, weightsInGrams));
+
+        WeightSketch region = new WeightSketch();
+        region.add(3400, 1);
+        region.add(12560, 1);
+        region.add(5500, 1);
+        assertTrue(store.readRegionWeightQuantiles(2, 8, QUANTILES, weightsInGrams));
+        for (int i = 0; i < QUANTILES.length; i++) {
+            assertEquals(region.getWeightInGramsAtQuantile(QUANTILES[i]), weightsInGrams[i]);
+        }
+        assertFalse(store.readRegionWeightQuantiles(1, 5, QUANTILES, weightsInGrams));
+    }
+
+    @Test
+    public void sketchesShouldBeRebuiltFromAddedStore() {
+        PackageStore partial = new PackageStore(false, false, 0, 0, true);
+        partial.add(1, 1000);
+        partial.add(1, 3000);
+        PackageStore store = new PackageStore(false, false, 0, 0, true);
+        store.addAll(partial);
+
+        WeightSketch expected = new WeightSketch();
+        expected.add(1000, 1);
+        expected.add(3000, 1);
+        long[] weightsInGrams = new long[QUANTILES.length];
+        assertTrue(store.readWeightQuantiles(1, QUANTILES, weightsInGrams));
+        for (int i = 0; i < QUANTILES.length; i++) {
+            assertEquals(expected.getWeightInGramsAtQuantile(QUANTILES[i]), weightsInGrams[i]);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void quantilesShouldNeedKeptSketches() {
+        new PackageStore(false).readWeightQuantiles(1, QUANTILES, new long[QUANTILES.length]);
+    }
+}
@@ -0,0 +1,42 @@
+package cz.stanislavsimek.bsctest.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WindowedTotalsTest {
+
+    @Test
+    public void windowsShouldContainOnlyRecentPackages() {
+        AtomicLong clock = new AtomicLong(1000000);
+        PackageStore store = new PackageStore(false, 3, 1000, clock::get);
+        store.add(1, 1000);
+        clock.addAndGet(1000);
+        store.advanceWindows();
+        store.add(1, 2000);
+        store.add(2, 500);
+
+        assertEquals("[00001 2.000 kg, 0.00 EUR, 1 packages, 00002 0.500 kg, 0.00 EUR, 1 packages]",
+                store.getWindowTotals(1, false).toString());
+        assertEquals("[00001 3.000 kg, 0.00 EUR, 2 packages, 00002 0.500 kg, 0.00 EUR, 1 packages]",
+                store.getWindowTotals(3, false).toString());
+        assertEquals("[00001 1.000 kg, 0.00 EUR, 1 packages]",
+                store.getWindowTotals(1, true).toString());
+
+        // The first slot expires
+        clock.addAndGet(2000);
+        assertEquals("[00001 2.000 kg, 0.00 EUR, 1 packages, 00002 0.500 kg, 0.00 EUR, 1 packages]",
+                store.getWindowTotals(3, false).toString());
+        // All slots expire, lifetime totals stay
+        clock.addAndGet(10000);
+        assertEquals("[]", store.getWindowTotals(3, false).toString());
+        assertEquals(2, store.getTotals().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tumblingWindowShouldNotIncludeExpiredSlot() {
+        PackageStore store = new PackageStore(false, 3, 1000, () -> 0);
+        store.getWindowTotals(3, true);
+    }
+}
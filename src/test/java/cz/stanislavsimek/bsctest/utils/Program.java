@@ -55,6 +55,7 @@ public class Program {
 
     public void stop() throws InterruptedException {
         thread.stop();
+        thread.join();
     }
 
     public void setInput(String command) {